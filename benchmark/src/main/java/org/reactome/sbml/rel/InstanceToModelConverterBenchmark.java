@@ -0,0 +1,139 @@
+package org.reactome.sbml.rel;
+
+import static org.gk.model.ReactomeJavaConstants.accessUrl;
+import static org.gk.model.ReactomeJavaConstants.accession;
+import static org.gk.model.ReactomeJavaConstants.compartment;
+import static org.gk.model.ReactomeJavaConstants.hasComponent;
+import static org.gk.model.ReactomeJavaConstants.identifier;
+import static org.gk.model.ReactomeJavaConstants.literatureReference;
+import static org.gk.model.ReactomeJavaConstants.pubMedIdentifier;
+import static org.gk.model.ReactomeJavaConstants.referenceDatabase;
+import static org.gk.model.ReactomeJavaConstants.referenceEntity;
+import static org.gk.model.ReactomeJavaConstants.stableIdentifier;
+import static org.gk.model.ReactomeJavaConstants.summation;
+import static org.gk.model.ReactomeJavaConstants.text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.gk.model.GKInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.reactome.server.graph.domain.model.PhysicalEntity;
+import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
+
+/**
+ * Conversion of GKInstances into graph model objects: {@link InstanceToModelConverter#convert(GKInstance)} with
+ * and without a cached result, and the setters used to fill in the attributes of physical entities.
+ * The instances are {@link SyntheticInstance}s shaped like Complexes made of EWASs, each one with a compartment,
+ * a summation and a literature reference, so no database is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstanceToModelConverterBenchmark {
+
+    private static final int SIZE = 512;
+    private static final int MASK = SIZE - 1;
+
+    private InstanceToModelConverter converter;
+    private List<GKInstance> complexes;
+    private int index;
+
+    @Setup
+    public void setUp() throws Exception {
+        long dbId = 1;
+        GKInstance uniprot = new SyntheticInstance(dbId++, "ReferenceDatabase", "UniProt")
+                .set(accessUrl, "http://purl.uniprot.org/uniprot/###ID###");
+        GKInstance go = new SyntheticInstance(dbId++, "ReferenceDatabase", "GO")
+                .set(accessUrl, "https://www.ebi.ac.uk/QuickGO/term/GO:###ID###");
+        List<GKInstance> compartments = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            compartments.add(new SyntheticInstance(dbId++, "Compartment", "compartment " + i)
+                    .set(referenceDatabase, go)
+                    .set(accession, "000" + (5000 + i)));
+        }
+        complexes = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            GKInstance comp = compartments.get(i % compartments.size());
+            List<GKInstance> components = new ArrayList<>();
+            for (int j = 0; j < 3; j++) {
+                GKInstance refEntity = new SyntheticInstance(dbId++, "ReferenceGeneProduct", "UniProt:P" + dbId)
+                        .set(referenceDatabase, uniprot)
+                        .set(identifier, "P" + (10000 + dbId));
+                components.add(new SyntheticInstance(dbId++, "EntityWithAccessionedSequence", "protein " + dbId)
+                        .set(stableIdentifier, stableId(dbId++))
+                        .set(compartment, comp)
+                        .set(referenceEntity, refEntity));
+            }
+            GKInstance summ = new SyntheticInstance(dbId++, "Summation", "summation " + i)
+                    .set(text, "This complex is formed in the " + comp.getDisplayName() + ".");
+            GKInstance litRef = new SyntheticInstance(dbId++, "LiteratureReference", "reference " + i)
+                    .set(pubMedIdentifier, 1000000 + i);
+            complexes.add(new SyntheticInstance(dbId++, "Complex", "complex " + i)
+                    .set(stableIdentifier, stableId(dbId++))
+                    .set(compartment, comp)
+                    .set(summation, summ)
+                    .set(literatureReference, litRef)
+                    .set(hasComponent, components.toArray()));
+        }
+        converter = new InstanceToModelConverter();
+        for (GKInstance complex : complexes) converter.convert(complex);
+    }
+
+    private static GKInstance stableId(long dbId) {
+        return new SyntheticInstance(dbId, "StableIdentifier", "R-HSA-" + dbId)
+                .set(identifier, "R-HSA-" + dbId);
+    }
+
+    @Benchmark
+    public DatabaseObject convertCached() throws Exception {
+        return converter.convert(complexes.get(index++ & MASK));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void convertUncached(Blackhole bh) throws Exception {
+        InstanceToModelConverter fresh = new InstanceToModelConverter();
+        for (GKInstance complex : complexes) bh.consume(fresh.convert(complex));
+    }
+
+    /**
+     * Only the setter lookup and call, the values themselves are already cached
+     */
+    @Benchmark
+    public DatabaseObject convertAttributeValues() throws Exception {
+        GKInstance complex = complexes.get(index++ & MASK);
+        DatabaseObject obj = converter.convert(complex);
+        converter.convertAttributeValues(complex, obj, compartment, null);
+        return obj;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void fillInPEDetails(Blackhole bh) throws Exception {
+        // A new converter so the attributes are filled in again
+        InstanceToModelConverter fresh = new InstanceToModelConverter();
+        for (GKInstance complex : complexes) {
+            ParticipantDetails details = new ParticipantDetails();
+            details.setPhysicalEntity((PhysicalEntity) fresh.convert(complex));
+            fresh.fillInPEDetails(complex, details);
+            bh.consume(details);
+        }
+    }
+}
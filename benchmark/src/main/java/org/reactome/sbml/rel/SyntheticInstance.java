@@ -0,0 +1,70 @@
+package org.reactome.sbml.rel;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.SchemaClass;
+
+/**
+ * A GKInstance that keeps its attribute values in memory, so that {@link InstanceToModelConverter} can be
+ * benchmarked without a database. The schema class is a proxy answering only what the converter asks for:
+ * its name, isa() against its own name and isValidAttribute() for the attributes that have been set.
+ */
+@SuppressWarnings("rawtypes")
+class SyntheticInstance extends GKInstance {
+    private final Map<String, List<Object>> values = new HashMap<>();
+    private final SchemaClass schemaClass;
+
+    SyntheticInstance(long dbId, String className, String displayName) {
+        setDBID(dbId);
+        setDisplayName(displayName);
+        this.schemaClass = (SchemaClass) Proxy.newProxyInstance(SchemaClass.class.getClassLoader(),
+                new Class<?>[]{SchemaClass.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getName":
+                            return className;
+                        case "isa":
+                            return className.equals(args[0]);
+                        case "isValidAttribute":
+                            return values.containsKey(String.valueOf(args[0]));
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return className;
+                        default:
+                            return method.getReturnType().equals(boolean.class) ? Boolean.FALSE : null;
+                    }
+                });
+    }
+
+    SyntheticInstance set(String attName, Object... attValues) {
+        List<Object> list = values.computeIfAbsent(attName, k -> new ArrayList<>());
+        Collections.addAll(list, attValues);
+        return this;
+    }
+
+    @Override
+    public SchemaClass getSchemClass() {
+        return schemaClass;
+    }
+
+    @Override
+    public Object getAttributeValue(String attributeName) {
+        List<Object> list = values.get(attributeName);
+        return list == null || list.isEmpty() ? null : list.get(0);
+    }
+
+    @Override
+    public List getAttributeValuesList(String attributeName) {
+        List<Object> list = values.get(attributeName);
+        return list == null ? new ArrayList<>() : list;
+    }
+}
@@ -0,0 +1,74 @@
+package org.reactome.server.tools.sbml;
+
+import com.martiansoftware.jsap.*;
+import org.reactome.server.tools.sbml.converter.SbmlConverter;
+import org.reactome.server.tools.sbml.data.synthetic.SyntheticPathwayGenerator;
+import org.reactome.server.tools.sbml.util.ExportEngine;
+import org.reactome.server.tools.sbml.util.SbmlOutput;
+import org.reactome.server.tools.sbml.util.Utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+/**
+ * Load test of the whole export (threads, conversion and output) with pathways from the
+ * {@link SyntheticPathwayGenerator}, so throughput and memory can be measured without a Reactome database.
+ * Run with "--help" for the options.
+ */
+public class SyntheticExport {
+
+    public static void main(String[] args) throws Exception {
+        SimpleJSAP jsap = new SimpleJSAP(SyntheticExport.class.getName(), "Exports synthetic pathways to measure the throughput and memory of the converter",
+                new Parameter[]{
+                        new FlaggedOption("output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'o', "output", "The output directory"),
+                        new FlaggedOption("pathways", JSAP.INTEGER_PARSER, "100", JSAP.NOT_REQUIRED, 'n', "pathways", "The number of pathways"),
+                        new FlaggedOption("reactions", JSAP.INTEGER_PARSER, "50", JSAP.NOT_REQUIRED, 'r', "reactions", "The number of reactions per pathway"),
+                        new FlaggedOption("depth", JSAP.INTEGER_PARSER, "2", JSAP.NOT_REQUIRED, 'd', "depth", "How deep complexes are nested"),
+                        new FlaggedOption("density", JSAP.INTEGER_PARSER, "2", JSAP.NOT_REQUIRED, 'a', "density", "Number of references, GO terms and instance edits per element"),
+                        new FlaggedOption("seed", JSAP.LONG_PARSER, "42", JSAP.NOT_REQUIRED, 's', "seed", "Seed used to generate the pathways"),
+                        new FlaggedOption("threads", JSAP.INTEGER_PARSER, "1", JSAP.NOT_REQUIRED, 'c', "threads", "The number of pathways converted in parallel"),
+                        new FlaggedOption("format", JSAP.STRING_PARSER, SbmlOutput.Format.SBML.getName(), JSAP.NOT_REQUIRED, 'f', "format", "The output format: 'sbml', 'gzip', 'zip' or 'tgz'"),
+                        new Switch("stream", JSAP.NO_SHORTFLAG, "stream", "Writes each SBML file while it is converted")
+                }
+        );
+        JSAPResult config = jsap.parse(args);
+        if (jsap.messagePrinted()) System.exit(1);
+
+        String output = config.getString("output");
+        Utils.outputCheck(output);
+        SyntheticPathwayGenerator generator = new SyntheticPathwayGenerator(config.getLong("seed"));
+        generator.setReactions(config.getInt("reactions"));
+        generator.setComplexDepth(config.getInt("depth"));
+        generator.setAnnotationDensity(config.getInt("density"));
+        boolean stream = config.getBoolean("stream");
+        List<String> stIds = SyntheticPathwayGenerator.getStIds(config.getInt("pathways"));
+
+        long start = System.currentTimeMillis();
+        try (SbmlOutput sbmlOutput = SbmlOutput.open(SbmlOutput.Format.parse(config.getString("format")), output, "synthetic");
+             ExportEngine engine = new ExportEngine(config.getInt("threads"), () -> new ExportEngine.Worker() {
+                 @Override
+                 public boolean export(String stId, SbmlOutput out) {
+                     return new SbmlConverter(generator.getPathway(stId), 0, generator).write(out, stream);
+                 }
+
+                 @Override
+                 public void close() {
+                 }
+             })) {
+            ExportEngine.Result result = engine.export(stIds, sbmlOutput, (stId, done) -> {
+                if (done % 100 == 0) System.out.println(done + " pathways exported");
+            });
+            if (!result.isComplete()) System.out.println(result);
+        }
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        System.out.println(String.format("%d pathways in %s (%.1f pathways/s), peak heap %d MB",
+                stIds.size(), Utils.getTimeFormatted(millis), stIds.size() * 1000.0 / millis, peak / (1024 * 1024)));
+    }
+}
@@ -0,0 +1,103 @@
+package org.reactome.server.tools.sbml.converter;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sbml.jsbml.Species;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-element {@link Helper} methods called for every species and reaction of every pathway.
+ * Inputs cycle through a fixed set of synthetic values so the JIT cannot specialise on a single one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HelperBenchmark {
+
+    private static final int SIZE = 256; // Power of two so the index can be masked
+    private static final int MASK = SIZE - 1;
+
+    private static final String[] URLS = {
+            "http://www.ebi.ac.uk/chebi/searchId.do?chebiId=CHEBI:",
+            "http://purl.uniprot.org/uniprot/",
+            "http://www.ncbi.nlm.nih.gov/pubmed/",
+            "https://www.ensembl.org/id/",          // Not in url2identifier.txt
+            "https://www.ebi.ac.uk/QuickGO/term/"   // Not in url2identifier.txt
+    };
+
+    // Length of the summation texts
+    @Param({"200", "2000"})
+    public int length;
+
+    // Whether convertUrl() rewrites the urls to identifiers.org
+    @Param({"true", "false"})
+    public boolean identifierUrls;
+
+    private List<String> texts;
+    private List<String> urls;
+    private List<String> dates;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        texts = SyntheticText.create(SIZE, length, 0.15, 42L);
+        Random random = new Random(42L);
+        urls = new ArrayList<>(SIZE);
+        dates = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            urls.add(URLS[random.nextInt(URLS.length)] + (100000 + random.nextInt(900000)));
+            dates.add(String.format("%d-%02d-%02d %02d:%02d:%02d", 2003 + random.nextInt(20), 1 + random.nextInt(12),
+                    1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60)));
+        }
+        Helper.setUseIdentifierURL(identifierUrls);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Helper.setUseIdentifierURL(false);
+    }
+
+    @Benchmark
+    public String removeTags() {
+        return Helper.removeTags(texts.get(index++ & MASK));
+    }
+
+    /**
+     * The chain of regular expressions replaced by {@link NotesSanitizer}, kept as a baseline
+     */
+    @Benchmark
+    public String removeTagsRegex() {
+        return texts.get(index++ & MASK)
+                .replaceAll("<->", " to ")
+                .replaceAll("\\p{Cntrl}+", " ")
+                .replaceAll("&+", " and ")
+                .replaceAll("<>", " interconverts to ")
+                .replaceAll("<.*?>", "")
+                .replaceAll("<", " ");
+    }
+
+    @Benchmark
+    public void addNotes(Blackhole bh) {
+        // A new element every time, otherwise the notes keep growing
+        Species species = new Species("species_" + index, 3, 1);
+        Helper.addNotes(species, texts.get(index++ & MASK), texts.get(index & MASK));
+        bh.consume(species);
+    }
+
+    @Benchmark
+    public String convertUrl() {
+        return Helper.convertUrl(urls.get(index++ & MASK));
+    }
+
+    @Benchmark
+    public Object parseDate() {
+        return HistoryFactory.parseDate(dates.get(index++ & MASK));
+    }
+}
@@ -0,0 +1,48 @@
+package org.reactome.server.tools.sbml.converter;
+
+import org.openjdk.jmh.annotations.*;
+import org.reactome.server.graph.domain.model.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * {@link SBOTermLookup#get(DatabaseObject)} is called for every species and compartment. The objects are a
+ * mix of the classes found in a pathway, so the instanceof chain is walked to different depths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SBOTermLookupBenchmark {
+
+    private static final int SIZE = 1024; // Power of two so the index can be masked
+    private static final int MASK = SIZE - 1;
+
+    // Roughly the proportions of a human pathway: mostly proteins, complexes and small molecules
+    private static final Supplier<?>[] CLASSES = {
+            EntityWithAccessionedSequence::new, EntityWithAccessionedSequence::new, EntityWithAccessionedSequence::new,
+            Complex::new, Complex::new,
+            SimpleEntity::new, SimpleEntity::new,
+            DefinedSet::new, CandidateSet::new,
+            GenomeEncodedEntity::new, Polymer::new, OtherEntity::new,
+            ChemicalDrug::new, ProteinDrug::new,
+            Compartment::new
+    };
+
+    private DatabaseObject[] objects;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        objects = new DatabaseObject[SIZE];
+        for (int i = 0; i < SIZE; i++) objects[i] = (DatabaseObject) CLASSES[(i * 7) % CLASSES.length].get();
+    }
+
+    @Benchmark
+    public Integer get() {
+        return SBOTermLookup.get(objects[index++ & MASK]);
+    }
+}
@@ -0,0 +1,68 @@
+package org.reactome.server.tools.sbml.converter;
+
+import org.openjdk.jmh.annotations.*;
+import org.reactome.server.graph.domain.model.Pathway;
+import org.reactome.server.tools.sbml.data.synthetic.SyntheticPathwayGenerator;
+import org.reactome.server.tools.sbml.util.Utils;
+import org.sbml.jsbml.SBMLDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole conversion of a pathway provided by the {@link SyntheticPathwayGenerator}, either building the SBMLDocument
+ * and writing it or streaming it. The time to generate the synthetic data is included in both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SbmlConverterBenchmark {
+
+    private static final String STID = SyntheticPathwayGenerator.STID_PREFIX + 1;
+
+    @Param({"20", "500"})
+    public int reactions;
+
+    @Param({"3"})
+    public int complexDepth;
+
+    @Param({"2"})
+    public int annotationDensity;
+
+    private SyntheticPathwayGenerator generator;
+    private Pathway pathway;
+    private ByteArrayOutputStream os;
+
+    @Setup
+    public void setUp() {
+        generator = new SyntheticPathwayGenerator(42L);
+        generator.setReactions(reactions);
+        generator.setComplexDepth(complexDepth);
+        generator.setAnnotationDensity(annotationDensity);
+        pathway = generator.getPathway(STID);
+        os = new ByteArrayOutputStream(1024 * 1024);
+    }
+
+    @Benchmark
+    public SBMLDocument convert() {
+        return new SbmlConverter(pathway, 0, generator).convert();
+    }
+
+    @Benchmark
+    public int convertAndWrite() throws Exception {
+        os.reset();
+        SBMLDocument doc = new SbmlConverter(pathway, 0, generator).convert();
+        Utils.writeSBML(os, doc);
+        return os.size();
+    }
+
+    @Benchmark
+    public int stream() throws Exception {
+        os.reset();
+        new SbmlConverter(pathway, 0, generator).stream(os);
+        return os.size();
+    }
+}
@@ -0,0 +1,123 @@
+package org.reactome.server.tools.sbml.converter;
+
+import org.openjdk.jmh.annotations.*;
+import org.reactome.server.tools.sbml.util.Utils;
+import org.sbml.jsbml.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialisation of an already built SBMLDocument, shaped like the ones created by {@link SbmlConverter}
+ * (metaids, SBO terms, notes and CV terms on every element), with the {@link TidySBMLWriter} used by the
+ * export and with the {@link SbmlStreamWriter} used by the streaming mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SbmlWriterBenchmark {
+
+    private static final int COMPARTMENTS = 5;
+
+    // Number of reactions in the model. There are twice as many species.
+    @Param({"10", "200"})
+    public int reactions;
+
+    private SBMLDocument doc;
+    private ByteArrayOutputStream os;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        int species = reactions * 2;
+        List<String> texts = SyntheticText.create(species + reactions, 600, 0.15, 42L);
+        long metaid = 0;
+
+        doc = new SBMLDocument(3, 1);
+        Model model = doc.createModel("pathway_1");
+        model.setMetaId("metaid_" + metaid++);
+        model.setName("Synthetic pathway");
+        Helper.addNotes(model, texts.get(0));
+        for (int i = 0; i < COMPARTMENTS; i++) {
+            Compartment c = model.createCompartment("compartment_" + i);
+            c.setMetaId("metaid_" + metaid++);
+            c.setName("compartment " + i);
+            c.setConstant(true);
+            Helper.addSBOTerm(c, 290);
+            Helper.addCVTerm(c, CVTerm.Qualifier.BQB_IS, "http://purl.obolibrary.org/obo/GO_000" + (5000 + i));
+        }
+        for (int i = 0; i < species; i++) {
+            Species s = model.createSpecies("species_" + i);
+            s.setMetaId("metaid_" + metaid++);
+            s.setName("entity " + i + " [cytosol]");
+            s.setBoundaryCondition(false);
+            s.setHasOnlySubstanceUnits(false);
+            s.setConstant(false);
+            s.setCompartment("compartment_" + random.nextInt(COMPARTMENTS));
+            Helper.addSBOTerm(s, 297);
+            Helper.addNotes(s, texts.get(i));
+            Helper.addCVTerm(s, CVTerm.Qualifier.BQB_IS, "https://reactome.org/content/detail/R-HSA-" + (100000 + i));
+            Helper.addCVTerm(s, CVTerm.Qualifier.BQB_HAS_PART,
+                    "http://purl.uniprot.org/uniprot/P" + (10000 + random.nextInt(90000)),
+                    "http://purl.uniprot.org/uniprot/Q" + (10000 + random.nextInt(90000)));
+        }
+        for (int i = 0; i < reactions; i++) {
+            Reaction rn = model.createReaction("reaction_" + i);
+            rn.setMetaId("metaid_" + metaid++);
+            rn.setName("reaction " + i);
+            //noinspection deprecation
+            rn.setFast(false);
+            rn.setReversible(false);
+            rn.setCompartment("compartment_" + random.nextInt(COMPARTMENTS));
+            Helper.addNotes(rn, texts.get(species + i));
+            Helper.addCVTerm(rn, CVTerm.Qualifier.BQB_IS, "https://reactome.org/content/detail/R-HSA-" + (200000 + i));
+            Helper.addCVTerm(rn, CVTerm.Qualifier.BQB_IS_DESCRIBED_BY, "http://www.ncbi.nlm.nih.gov/pubmed/" + (1000000 + i));
+            SpeciesReference input = rn.createReactant("reaction_" + i + "_input", "species_" + random.nextInt(species));
+            input.setConstant(true);
+            input.setStoichiometry(1);
+            Helper.addSBOTerm(input, Role.INPUT.term);
+            SpeciesReference output = rn.createProduct("reaction_" + i + "_output", "species_" + random.nextInt(species));
+            output.setConstant(true);
+            output.setStoichiometry(1);
+            Helper.addSBOTerm(output, Role.OUTPUT.term);
+            ModifierSpeciesReference modifier = rn.createModifier("reaction_" + i + "_catalyst", "species_" + random.nextInt(species));
+            Helper.addSBOTerm(modifier, Role.CATALYST.term);
+        }
+        os = new ByteArrayOutputStream(1024 * 1024);
+    }
+
+    @Benchmark
+    public int tidyWriter() throws Exception {
+        os.reset();
+        Utils.writeSBML(os, doc);
+        return os.size();
+    }
+
+    @Benchmark
+    public int streamWriter() throws Exception {
+        os.reset();
+        Model model = doc.getModel();
+        // The start element is written from an empty copy as the converter does
+        SBMLDocument start = new SBMLDocument(doc.getLevel(), doc.getVersion());
+        Model startModel = start.createModel(model.getId());
+        startModel.setMetaId(model.getMetaId());
+        startModel.setName(model.getName());
+        startModel.setNotes(model.getNotes().clone());
+        SbmlStreamWriter writer = new SbmlStreamWriter(os);
+        try {
+            writer.writeStart(start);
+            for (Compartment c : model.getListOfCompartments()) writer.write("listOfCompartments", c);
+            for (Species s : model.getListOfSpecies()) writer.write("listOfSpecies", s);
+            for (Reaction r : model.getListOfReactions()) writer.write("listOfReactions", r);
+            writer.writeEnd();
+        } finally {
+            writer.close();
+        }
+        return os.size();
+    }
+}
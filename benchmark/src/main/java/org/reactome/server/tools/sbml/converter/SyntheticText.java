@@ -0,0 +1,42 @@
+package org.reactome.server.tools.sbml.converter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates summation-like texts containing the markup found in Reactome summations (html tags, entities,
+ * arrows, ampersands and line breaks). A fixed seed is used so every run measures the same inputs.
+ */
+class SyntheticText {
+
+    private static final String[] WORDS = {"the", "protein", "complex", "binds", "to", "phosphorylated", "receptor",
+            "in", "cytosol", "and", "is", "translocated", "nucleus", "where", "it", "activates", "transcription",
+            "of", "target", "genes", "kinase", "domain", "ATP", "ADP", "membrane", "signaling", "pathway"};
+
+    private static final String[] MARKUP = {"<i>", "</i>", "<b>", "</b>", "<br>", "<p>", "</p>", "<sup>2+</sup>",
+            "<a href=\"https://reactome.org\">", "</a>", " & ", " <-> ", " <> ", "\n", "\n\n", "\t", " < ", "&&"};
+
+    private SyntheticText() {
+    }
+
+    /**
+     * @param count  number of texts
+     * @param length approximate number of characters of each text
+     * @param markup probability (0 to 1) of adding a markup token after every word
+     */
+    static List<String> create(int count, int length, double markup, long seed) {
+        Random random = new Random(seed);
+        List<String> rtn = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder(length + 32);
+            while (sb.length() < length) {
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+                if (random.nextDouble() < markup) sb.append(MARKUP[random.nextInt(MARKUP.length)]);
+                else sb.append(' ');
+            }
+            rtn.add(sb.toString());
+        }
+        return rtn;
+    }
+}
@@ -0,0 +1,265 @@
+package org.reactome.sbml.rel;
+
+import static org.gk.model.ReactomeJavaConstants.accessUrl;
+import static org.gk.model.ReactomeJavaConstants.accession;
+import static org.gk.model.ReactomeJavaConstants.activity;
+import static org.gk.model.ReactomeJavaConstants.affiliation;
+import static org.gk.model.ReactomeJavaConstants.author;
+import static org.gk.model.ReactomeJavaConstants.authored;
+import static org.gk.model.ReactomeJavaConstants.catalystActivity;
+import static org.gk.model.ReactomeJavaConstants.compartment;
+import static org.gk.model.ReactomeJavaConstants.created;
+import static org.gk.model.ReactomeJavaConstants.crossReference;
+import static org.gk.model.ReactomeJavaConstants.dateTime;
+import static org.gk.model.ReactomeJavaConstants.disease;
+import static org.gk.model.ReactomeJavaConstants.ecNumber;
+import static org.gk.model.ReactomeJavaConstants.firstname;
+import static org.gk.model.ReactomeJavaConstants.goBiologicalProcess;
+import static org.gk.model.ReactomeJavaConstants.hasCandidate;
+import static org.gk.model.ReactomeJavaConstants.hasComponent;
+import static org.gk.model.ReactomeJavaConstants.hasMember;
+import static org.gk.model.ReactomeJavaConstants.hasModifiedResidue;
+import static org.gk.model.ReactomeJavaConstants.identifier;
+import static org.gk.model.ReactomeJavaConstants.inferredFrom;
+import static org.gk.model.ReactomeJavaConstants.inferredTo;
+import static org.gk.model.ReactomeJavaConstants.input;
+import static org.gk.model.ReactomeJavaConstants.literatureReference;
+import static org.gk.model.ReactomeJavaConstants.modified;
+import static org.gk.model.ReactomeJavaConstants.name;
+import static org.gk.model.ReactomeJavaConstants.output;
+import static org.gk.model.ReactomeJavaConstants.physicalEntity;
+import static org.gk.model.ReactomeJavaConstants.psiMod;
+import static org.gk.model.ReactomeJavaConstants.pubMedIdentifier;
+import static org.gk.model.ReactomeJavaConstants.referenceDatabase;
+import static org.gk.model.ReactomeJavaConstants.referenceEntity;
+import static org.gk.model.ReactomeJavaConstants.regulatedBy;
+import static org.gk.model.ReactomeJavaConstants.regulator;
+import static org.gk.model.ReactomeJavaConstants.repeatedUnit;
+import static org.gk.model.ReactomeJavaConstants.revised;
+import static org.gk.model.ReactomeJavaConstants.stableIdentifier;
+import static org.gk.model.ReactomeJavaConstants.summation;
+import static org.gk.model.ReactomeJavaConstants.surname;
+import static org.gk.model.ReactomeJavaConstants.text;
+import static org.gk.model.ReactomeJavaConstants.uniformResourceLocator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaClass;
+
+/**
+ * Bulk-loads the attributes used by {@link InstanceToModelConverter} and {@link ReactionHandler} for all reactions
+ * and participants of a pathway before the conversion starts. Otherwise each getAttributeValuesList() call in the
+ * conversion is a separate lazy query in MySQLAdaptor. Instances are grouped by schema class and loaded one attribute
+ * at a time using IN lists, so that a pathway is loaded with a few dozen queries. The instances referred by the
+ * loaded attributes are loaded in the next level in the same way.
+ */
+@SuppressWarnings("unchecked")
+public class AttributePrefetcher {
+    // Keep the IN lists in a reasonable size
+    private static final int CHUNK_SIZE = 1000;
+    // Attributes handled by InstanceToModelConverter.convert() and handleInstance()
+    private static final String[] INSTANCE_ATTS = {stableIdentifier,
+                                                   compartment,
+                                                   summation,
+                                                   literatureReference,
+                                                   goBiologicalProcess,
+                                                   hasModifiedResidue,
+                                                   inferredTo,
+                                                   inferredFrom};
+    private static final String[] EVENT_ATTS = {created, modified, revised, authored};
+    private static final String[] REACTION_ATTS = {input,
+                                                   output,
+                                                   catalystActivity,
+                                                   regulatedBy,
+                                                   disease,
+                                                   crossReference};
+    private static final String[] ENTITY_ATTS = {referenceEntity,
+                                                 hasComponent,
+                                                 hasMember,
+                                                 hasCandidate,
+                                                 repeatedUnit};
+    // Used by InstanceToModelConverter.getUrl()
+    private static final String[] URL_ATTS = {referenceDatabase, accession, identifier};
+    private MySQLAdaptor dba;
+    // To avoid loading the same attribute for the same instance twice
+    private Map<String, Set<GKInstance>> loaded;
+    // DB_IDs of all instances whose attributes have been requested, i.e. the instances the conversion depends on
+    private Set<Long> visited;
+    private int queries;
+
+    public AttributePrefetcher(MySQLAdaptor dba) {
+        this.dba = dba;
+        this.loaded = new HashMap<>();
+        this.visited = new HashSet<>();
+    }
+
+    /**
+     * Load the attributes of the passed events that are not specific to reactions (e.g. the top pathway):
+     * identifiers, instance edits, summations, literature references and compartments.
+     * @param events
+     * @throws Exception
+     */
+    public void prefetchEvents(Collection<GKInstance> events) throws Exception {
+        prefetch(events, INSTANCE_ATTS);
+        prefetchInstanceEdits(prefetch(events, EVENT_ATTS));
+        prefetchStableIds(collect(events, stableIdentifier));
+        prefetchUrls(collect(events, compartment, goBiologicalProcess));
+        prefetchSummations(collect(events, summation));
+        prefetchLiteratureRefs(collect(events, literatureReference));
+    }
+
+    /**
+     * Load the attributes needed for the passed ReactionlikeEvents and the instances they refer to.
+     * This should be called before the participants are collected from the reactions.
+     * @param reactions
+     * @throws Exception
+     */
+    public void prefetchReactions(Collection<GKInstance> reactions) throws Exception {
+        prefetchEvents(reactions);
+        prefetch(reactions, REACTION_ATTS);
+        prefetchUrls(collect(reactions, disease, crossReference));
+        // CatalystActivities and Regulations
+        Set<GKInstance> activities = prefetch(collect(reactions, catalystActivity), physicalEntity, activity);
+        prefetch(activities, ecNumber);
+        prefetchUrls(activities);
+        prefetch(collect(reactions, regulatedBy), regulator);
+    }
+
+    /**
+     * Load the attributes needed for the passed PhysicalEntities, including the whole hierarchy of
+     * their components and members and the ReferenceEntities at the bottom.
+     * @param participants
+     * @throws Exception
+     */
+    public void prefetchParticipants(Collection<GKInstance> participants) throws Exception {
+        Set<GKInstance> entities = new HashSet<>(participants);
+        Set<GKInstance> current = new HashSet<>(participants);
+        Set<GKInstance> refEntities = new HashSet<>();
+        // Level by level down the complex and set hierarchy
+        while (current.size() > 0) {
+            prefetch(current, ENTITY_ATTS);
+            refEntities.addAll(collect(current, referenceEntity));
+            Set<GKInstance> next = collect(current, hasComponent, hasMember, hasCandidate, repeatedUnit);
+            next.removeAll(entities);
+            entities.addAll(next);
+            current = next;
+        }
+        prefetch(entities, INSTANCE_ATTS);
+        prefetchStableIds(collect(entities, stableIdentifier));
+        prefetchUrls(collect(entities, compartment, goBiologicalProcess));
+        prefetchUrls(refEntities);
+        prefetchSummations(collect(entities, summation));
+        prefetchLiteratureRefs(collect(entities, literatureReference));
+        Set<GKInstance> psiMods = prefetch(collect(entities, hasModifiedResidue), psiMod);
+        prefetchUrls(psiMods);
+    }
+
+    /**
+     * @return the DB_IDs of every instance loaded so far
+     */
+    public Set<Long> getVisited() {
+        return visited;
+    }
+
+    /**
+     * @return all instances whose attributes have been loaded, i.e. the instances held by the conversion
+     */
+    public Set<GKInstance> getInstances() {
+        Set<GKInstance> rtn = new HashSet<>();
+        for (Set<GKInstance> instances : loaded.values())
+            rtn.addAll(instances);
+        return rtn;
+    }
+
+    /**
+     * @return the number of queries issued so far
+     */
+    public int getQueries() {
+        return queries;
+    }
+
+    private void prefetchStableIds(Collection<GKInstance> stableIds) throws Exception {
+        prefetch(stableIds, identifier);
+    }
+
+    private void prefetchSummations(Collection<GKInstance> summations) throws Exception {
+        prefetch(summations, text);
+        prefetchLiteratureRefs(prefetch(summations, literatureReference));
+    }
+
+    private void prefetchLiteratureRefs(Collection<GKInstance> refs) throws Exception {
+        prefetch(refs, pubMedIdentifier, uniformResourceLocator);
+    }
+
+    private void prefetchUrls(Collection<GKInstance> instances) throws Exception {
+        Set<GKInstance> refDbs = prefetch(instances, URL_ATTS);
+        prefetch(refDbs, accessUrl);
+    }
+
+    private void prefetchInstanceEdits(Collection<GKInstance> instanceEdits) throws Exception {
+        Set<GKInstance> persons = prefetch(instanceEdits, author, dateTime);
+        Set<GKInstance> affiliations = prefetch(persons, firstname, surname, affiliation);
+        prefetch(affiliations, name);
+    }
+
+    /**
+     * Load the passed attributes for all instances having them.
+     * @return instance values of these attributes so that they can be loaded in the next level
+     */
+    private Set<GKInstance> prefetch(Collection<GKInstance> instances, String... attNames) throws Exception {
+        if (instances.size() == 0)
+            return new HashSet<>();
+        Map<SchemaClass, List<GKInstance>> clsToInsts = new HashMap<>();
+        for (GKInstance inst : instances) {
+            visited.add(inst.getDBID());
+            clsToInsts.computeIfAbsent(inst.getSchemClass(), k -> new ArrayList<>()).add(inst);
+        }
+        for (SchemaClass cls : clsToInsts.keySet()) {
+            for (String attName : attNames) {
+                if (!cls.isValidAttribute(attName))
+                    continue;
+                Set<GKInstance> done = loaded.computeIfAbsent(attName, k -> new HashSet<>());
+                List<GKInstance> toLoad = new ArrayList<>();
+                for (GKInstance inst : clsToInsts.get(cls)) {
+                    if (done.add(inst))
+                        toLoad.add(inst);
+                }
+                for (int i = 0; i < toLoad.size(); i += CHUNK_SIZE) {
+                    List<GKInstance> chunk = toLoad.subList(i, Math.min(i + CHUNK_SIZE, toLoad.size()));
+                    dba.loadInstanceAttributeValues(chunk, new String[]{attName});
+                    queries ++;
+                }
+            }
+        }
+        return collect(instances, attNames);
+    }
+
+    private Set<GKInstance> collect(Collection<GKInstance> instances, String... attNames) throws Exception {
+        Set<GKInstance> rtn = new HashSet<>();
+        for (GKInstance inst : instances) {
+            for (String attName : attNames) {
+                if (!inst.getSchemClass().isValidAttribute(attName) ||
+                    !inst.getSchemClass().getAttribute(attName).isInstanceTypeAttribute())
+                    continue;
+                List<GKInstance> values = inst.getAttributeValuesList(attName);
+                if (values != null)
+                    rtn.addAll(values);
+            }
+        }
+        return rtn;
+    }
+
+    @Override
+    public String toString() {
+        return "AttributePrefetcher: " + queries + " queries";
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.reactome.sbml.rel;
+
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.reactome.server.tools.sbml.util.LruCache;
+
+/**
+ * Keeps the DatabaseObjects converted from GKInstances by {@link InstanceToModelConverter}, keyed by DB_ID, so that
+ * they can be re-used by all the pathways converted during a release export (and by all the export threads, since
+ * each one of them loads its own GKInstances for the same DB_IDs).
+ * It also records which objects already have their attributes filled in, so that work is done once per object.
+ */
+public class DatabaseObjectCache {
+    public static final int DEFAULT_MAX_SIZE = 200000;
+    private final LruCache<Long, CachedObject> cache;
+
+    public DatabaseObjectCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public DatabaseObjectCache(int maxSize) {
+        cache = new LruCache<>("DatabaseObject cache", maxSize);
+    }
+
+    public DatabaseObject get(Long dbId) {
+        CachedObject cached = cache.get(dbId);
+        return cached == null ? null : cached.object;
+    }
+
+    /**
+     * @return the object kept for the provided DB_ID, which may have been added by another thread in the meantime.
+     */
+    public DatabaseObject putIfAbsent(Long dbId, DatabaseObject object) {
+        return cache.putIfAbsent(dbId, new CachedObject(object)).object;
+    }
+
+    /**
+     * Checks if the passed object is the one kept in the cache and its attributes have been filled in already.
+     * An evicted object is never reported as filled even if a newer copy of it has been.
+     */
+    boolean isFilled(Long dbId, DatabaseObject object) {
+        CachedObject cached = cache.peek(dbId);
+        return cached != null && cached.object == object && cached.filled;
+    }
+
+    void setFilled(Long dbId, DatabaseObject object) {
+        CachedObject cached = cache.peek(dbId);
+        if (cached != null && cached.object == object)
+            cached.filled = true;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    @Override
+    public String toString() {
+        return cache.toString();
+    }
+
+    private static class CachedObject {
+        private final DatabaseObject object;
+        private volatile boolean filled;
+
+        CachedObject(DatabaseObject object) {
+            this.object = object;
+        }
+    }
+}
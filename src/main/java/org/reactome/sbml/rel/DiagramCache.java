@@ -0,0 +1,201 @@
+package org.reactome.sbml.rel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.gk.persistence.MySQLAdaptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the {@link DiagramGeometry} of every converted diagram in a folder, one binary file per PathwayDiagram
+ * DB_ID. Each file records the stamp of the diagram it was extracted from (its _timestamp, latest modified
+ * InstanceEdit and the validation used) and the DB_IDs of the instances drawn in it with their latest _timestamp,
+ * since their names are taken from the database and not from the diagram. It is only used while none of them has
+ * changed. A hit skips fetching the diagram, parsing its XML and validating it. Diagrams without reactions are kept
+ * too (as {@link #NO_LAYOUT}), so they are not fetched again either.
+ * It is shared by all the export threads and every thread passes its own {@link MySQLAdaptor}.
+ */
+public class DiagramCache {
+    private static final Logger logger = LoggerFactory.getLogger(DiagramCache.class);
+    private static final int MAGIC = 0x52474447; // "RGDG"
+    private static final String EXTENSION = ".geometry";
+    private static final String STAMP_QUERY = "SELECT p.DB_ID, d._timestamp, MAX(m.modified) " +
+                                              "FROM PathwayDiagram_2_representedPathway p " +
+                                              "JOIN DatabaseObject d ON d.DB_ID = p.DB_ID " +
+                                              "LEFT JOIN DatabaseObject_2_modified m ON m.DB_ID = p.DB_ID " +
+                                              "WHERE p.representedPathway = ? " +
+                                              "GROUP BY p.DB_ID, d._timestamp ORDER BY p.DB_ID";
+    private static final String DRAWN_QUERY = "SELECT COUNT(*), MAX(_timestamp) FROM DatabaseObject WHERE DB_ID IN (";
+    // Keep the IN lists in a reasonable size
+    private static final int CHUNK_SIZE = 1000;
+
+    /**
+     * Returned by {@link #get(Stamp, MySQLAdaptor)} for diagrams that have no layout since they have no reactions
+     */
+    static final DiagramGeometry NO_LAYOUT = new DiagramGeometry(null, null);
+
+    private final File folder;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public DiagramCache(File folder) throws IOException {
+        Files.createDirectories(folder.toPath());
+        this.folder = folder;
+    }
+
+    /**
+     * @return the DB_ID and the current stamp of the diagram of the pathway, or null if it has no diagram
+     */
+    Stamp getStamp(Long pathwayId, String validation, MySQLAdaptor dba) throws SQLException {
+        try (PreparedStatement stat = dba.getConnection().prepareStatement(STAMP_QUERY)) {
+            stat.setLong(1, pathwayId);
+            try (ResultSet result = stat.executeQuery()) {
+                if (!result.next())
+                    return null;
+                Timestamp timestamp = result.getTimestamp(2);
+                String stamp = (timestamp == null ? "" : timestamp.getTime()) + ":" + result.getLong(3) + ":" + validation;
+                return new Stamp(result.getLong(1), stamp);
+            }
+        }
+    }
+
+    /**
+     * @return the geometry kept for the diagram ({@link #NO_LAYOUT} if it has no reactions) or null if there is none
+     * or the diagram or any instance drawn in it changed since
+     */
+    DiagramGeometry get(Stamp stamp, MySQLAdaptor dba) {
+        File file = getFile(stamp.diagramId);
+        if (!file.isFile()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (is.readInt() != MAGIC ||
+                is.readInt() != DiagramGeometry.FORMAT_VERSION ||
+                !is.readUTF().equals(stamp.stamp)) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (!is.readBoolean()) {
+                hits.incrementAndGet();
+                return NO_LAYOUT;
+            }
+            int size = is.readInt();
+            List<Long> drawn = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                drawn.add(is.readLong());
+            if (!is.readUTF().equals(getDrawnStamp(drawn, dba))) {
+                misses.incrementAndGet();
+                return null;
+            }
+            DiagramGeometry rtn = DiagramGeometry.read(is);
+            hits.incrementAndGet();
+            return rtn;
+        }
+        catch(IOException | SQLException e) {
+            logger.warn("Cannot read the cached geometry in " + file + ": " + e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the geometry to a temporary file first, so other threads and later exports never read a partial one.
+     * @param geometry the validated geometry or {@link #NO_LAYOUT} if the diagram has no reactions
+     */
+    void put(Stamp stamp, DiagramGeometry geometry, MySQLAdaptor dba) {
+        File file = getFile(stamp.diagramId);
+        Path tmp = null;
+        try {
+            List<Long> drawn = geometry == NO_LAYOUT ? null : new ArrayList<>(geometry.getDrawnInstances());
+            String drawnStamp = drawn == null ? null : getDrawnStamp(drawn, dba);
+            tmp = Files.createTempFile(folder.toPath(), stamp.diagramId + "-", ".tmp");
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                os.writeInt(MAGIC);
+                os.writeInt(DiagramGeometry.FORMAT_VERSION);
+                os.writeUTF(stamp.stamp);
+                os.writeBoolean(drawn != null);
+                if (drawn != null) {
+                    os.writeInt(drawn.size());
+                    for (Long dbId : drawn)
+                        os.writeLong(dbId);
+                    os.writeUTF(drawnStamp);
+                    geometry.write(os);
+                }
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException | SQLException e) {
+            logger.warn("Cannot cache the geometry of diagram " + stamp.diagramId + ": " + e.getMessage());
+            try {
+                if (tmp != null)
+                    Files.deleteIfExists(tmp);
+            }
+            catch(IOException e1) {
+                // Nothing else can be done
+            }
+        }
+    }
+
+    /**
+     * @return the number of the passed instances still in the database and their latest _timestamp, so renaming
+     * or deleting any of them changes it
+     */
+    private String getDrawnStamp(List<Long> dbIds, MySQLAdaptor dba) throws SQLException {
+        long count = 0L;
+        long latest = 0L;
+        try (Statement stat = dba.getConnection().createStatement()) {
+            for (int i = 0; i < dbIds.size(); i += CHUNK_SIZE) {
+                String ids = dbIds.subList(i, Math.min(i + CHUNK_SIZE, dbIds.size())).stream()
+                        .map(String::valueOf)
+                        .collect(Collectors.joining(","));
+                try (ResultSet result = stat.executeQuery(DRAWN_QUERY + ids + ")")) {
+                    if (!result.next())
+                        continue;
+                    count += result.getLong(1);
+                    Timestamp timestamp = result.getTimestamp(2);
+                    if (timestamp != null)
+                        latest = Math.max(latest, timestamp.getTime());
+                }
+            }
+        }
+        return count + ":" + latest;
+    }
+
+    private File getFile(Long diagramId) {
+        return new File(folder, diagramId + EXTENSION);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Diagram cache (%s): %d hits, %d misses", folder, hits.get(), misses.get());
+    }
+
+    static class Stamp {
+        final Long diagramId;
+        final String stamp;
+
+        private Stamp(Long diagramId, String stamp) {
+            this.diagramId = diagramId;
+            this.stamp = stamp;
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package org.reactome.sbml.rel;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The validated geometry of a pathway diagram that is converted into the SBML layout: compartment and node boxes,
+ * their text boxes and the reaction curves. It is extracted from a RenderablePathway by the {@link LayoutConverter}
+ * and can be written to and read from a compact binary form, so it can be kept by the {@link DiagramCache}.
+ */
+public class DiagramGeometry {
+    // Increase when the content or the way it is extracted changes, so older cached files are not used
+    static final int FORMAT_VERSION = 2;
+
+    // DB_ID of the PathwayDiagram
+    private final Long diagramId;
+    // Bounds of all nodes (compartments included)
+    private final Rectangle bounds;
+    private final List<Shape> compartments = new ArrayList<>();
+    private final List<Shape> nodes = new ArrayList<>();
+    private final List<Reaction> reactions = new ArrayList<>();
+
+    DiagramGeometry(Long diagramId, Rectangle bounds) {
+        this.diagramId = diagramId;
+        this.bounds = bounds;
+    }
+
+    public Long getDiagramId() {
+        return diagramId;
+    }
+
+    Rectangle getBounds() {
+        return bounds;
+    }
+
+    List<Shape> getCompartments() {
+        return compartments;
+    }
+
+    List<Shape> getNodes() {
+        return nodes;
+    }
+
+    List<Reaction> getReactions() {
+        return reactions;
+    }
+
+    /**
+     * @return the DB_IDs of the compartments, entities and reactions drawn in the diagram, whose names and
+     * types end up in the layout
+     */
+    Set<Long> getDrawnInstances() {
+        Set<Long> rtn = new TreeSet<>();
+        for (Shape shape : compartments) {
+            if (shape.reactomeId != null)
+                rtn.add(shape.reactomeId);
+        }
+        for (Shape shape : nodes) {
+            if (shape.reactomeId != null)
+                rtn.add(shape.reactomeId);
+        }
+        for (Reaction reaction : reactions) {
+            if (reaction.reactomeId != null)
+                rtn.add(reaction.reactomeId);
+        }
+        return rtn;
+    }
+
+    void write(DataOutputStream os) throws IOException {
+        writeLong(os, diagramId);
+        writeRectangle(os, bounds);
+        writeShapes(os, compartments);
+        writeShapes(os, nodes);
+        os.writeInt(reactions.size());
+        for (Reaction reaction : reactions) {
+            os.writeInt(reaction.id);
+            writeLong(os, reaction.reactomeId);
+            writePoint(os, reaction.position);
+            writePoints(os, reaction.backbone);
+            for (Role role : Role.values()) {
+                writeIds(os, reaction.nodeIds[role.ordinal()]);
+                List<List<Point>> branches = reaction.branches[role.ordinal()];
+                if (branches == null) {
+                    os.writeInt(-1);
+                    continue;
+                }
+                os.writeInt(branches.size());
+                for (List<Point> branch : branches)
+                    writePoints(os, branch);
+            }
+        }
+    }
+
+    static DiagramGeometry read(DataInputStream is) throws IOException {
+        DiagramGeometry rtn = new DiagramGeometry(readLong(is), readRectangle(is));
+        readShapes(is, rtn.compartments);
+        readShapes(is, rtn.nodes);
+        int size = is.readInt();
+        for (int i = 0; i < size; i++) {
+            Reaction reaction = new Reaction(is.readInt(), readLong(is), readPoint(is), readPoints(is));
+            for (Role role : Role.values()) {
+                reaction.nodeIds[role.ordinal()] = readIds(is);
+                int branches = is.readInt();
+                if (branches < 0)
+                    continue;
+                List<List<Point>> list = new ArrayList<>(branches);
+                for (int j = 0; j < branches; j++)
+                    list.add(readPoints(is));
+                reaction.branches[role.ordinal()] = list;
+            }
+            rtn.reactions.add(reaction);
+        }
+        return rtn;
+    }
+
+    private static void writeShapes(DataOutputStream os, List<Shape> shapes) throws IOException {
+        os.writeInt(shapes.size());
+        for (Shape shape : shapes) {
+            os.writeInt(shape.id);
+            writeLong(os, shape.reactomeId);
+            writeString(os, shape.displayName);
+            writeString(os, shape.sboTerm);
+            writeRectangle(os, shape.bounds);
+            writeRectangle(os, shape.textBounds);
+        }
+    }
+
+    private static void readShapes(DataInputStream is, List<Shape> shapes) throws IOException {
+        int size = is.readInt();
+        for (int i = 0; i < size; i++)
+            shapes.add(new Shape(is.readInt(), readLong(is), readString(is), readString(is), readRectangle(is), readRectangle(is)));
+    }
+
+    private static void writeLong(DataOutputStream os, Long value) throws IOException {
+        os.writeBoolean(value != null);
+        if (value != null)
+            os.writeLong(value);
+    }
+
+    private static Long readLong(DataInputStream is) throws IOException {
+        return is.readBoolean() ? is.readLong() : null;
+    }
+
+    private static void writeString(DataOutputStream os, String value) throws IOException {
+        os.writeBoolean(value != null);
+        if (value != null)
+            os.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream is) throws IOException {
+        return is.readBoolean() ? is.readUTF() : null;
+    }
+
+    private static void writeRectangle(DataOutputStream os, Rectangle rect) throws IOException {
+        os.writeBoolean(rect != null);
+        if (rect == null)
+            return;
+        os.writeInt(rect.x);
+        os.writeInt(rect.y);
+        os.writeInt(rect.width);
+        os.writeInt(rect.height);
+    }
+
+    private static Rectangle readRectangle(DataInputStream is) throws IOException {
+        return is.readBoolean() ? new Rectangle(is.readInt(), is.readInt(), is.readInt(), is.readInt()) : null;
+    }
+
+    private static void writePoint(DataOutputStream os, Point point) throws IOException {
+        os.writeBoolean(point != null);
+        if (point == null)
+            return;
+        os.writeInt(point.x);
+        os.writeInt(point.y);
+    }
+
+    private static Point readPoint(DataInputStream is) throws IOException {
+        return is.readBoolean() ? new Point(is.readInt(), is.readInt()) : null;
+    }
+
+    private static void writePoints(DataOutputStream os, List<Point> points) throws IOException {
+        if (points == null) {
+            os.writeInt(-1);
+            return;
+        }
+        os.writeInt(points.size());
+        for (Point point : points)
+            writePoint(os, point);
+    }
+
+    private static List<Point> readPoints(DataInputStream is) throws IOException {
+        int size = is.readInt();
+        if (size < 0)
+            return null;
+        List<Point> rtn = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            rtn.add(readPoint(is));
+        return rtn;
+    }
+
+    private static void writeIds(DataOutputStream os, List<Integer> ids) throws IOException {
+        os.writeInt(ids.size());
+        for (Integer id : ids)
+            os.writeInt(id);
+    }
+
+    private static List<Integer> readIds(DataInputStream is) throws IOException {
+        int size = is.readInt();
+        List<Integer> rtn = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            rtn.add(is.readInt());
+        return rtn;
+    }
+
+    /**
+     * The nodes linked to a reaction, in the order they are laid out
+     */
+    enum Role {
+        INPUT, OUTPUT, CATALYST, ACTIVATOR, INHIBITOR
+    }
+
+    /**
+     * A compartment or a species node
+     */
+    static class Shape {
+        // Id of the renderable in the diagram
+        final int id;
+        final Long reactomeId;
+        final String displayName;
+        // Null for entity sets, whose term depends on their members
+        final String sboTerm;
+        final Rectangle bounds;
+        final Rectangle textBounds;
+
+        Shape(int id, Long reactomeId, String displayName, String sboTerm, Rectangle bounds, Rectangle textBounds) {
+            this.id = id;
+            this.reactomeId = reactomeId;
+            this.displayName = displayName;
+            this.sboTerm = sboTerm;
+            this.bounds = bounds;
+            this.textBounds = textBounds;
+        }
+    }
+
+    static class Reaction {
+        final int id;
+        final Long reactomeId;
+        final Point position;
+        final List<Point> backbone;
+        // Ids of the linked nodes and their branches (which may be null), by Role
+        final List<Integer>[] nodeIds;
+        final List<List<Point>>[] branches;
+
+        @SuppressWarnings("unchecked")
+        Reaction(int id, Long reactomeId, Point position, List<Point> backbone) {
+            this.id = id;
+            this.reactomeId = reactomeId;
+            this.position = position;
+            this.backbone = backbone;
+            this.nodeIds = new List[Role.values().length];
+            this.branches = new List[Role.values().length];
+            for (Role role : Role.values())
+                nodeIds[role.ordinal()] = Collections.emptyList();
+        }
+
+        List<Integer> getNodeIds(Role role) {
+            return nodeIds[role.ordinal()];
+        }
+
+        List<List<Point>> getBranches(Role role) {
+            return branches[role.ordinal()];
+        }
+
+        void setNodes(Role role, List<Integer> ids, List<List<Point>> points) {
+            nodeIds[role.ordinal()] = ids;
+            branches[role.ordinal()] = points;
+        }
+    }
+}
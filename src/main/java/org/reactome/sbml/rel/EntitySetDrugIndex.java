@@ -0,0 +1,179 @@
+package org.reactome.sbml.rel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.SchemaClass;
+
+/**
+ * Tells if an entity set contains a drug anywhere down its member, candidate, component and repeated unit
+ * hierarchy, which is what InstanceUtilities.hasDrug() checks. All the sets of a diagram are resolved together
+ * with a few IN-list queries per level of the hierarchy instead of fetching and walking every set separately.
+ * The flags of the sets and of the entities under them are kept for the whole export and shared by all threads,
+ * since the same sets are found in many diagrams.
+ */
+public final class EntitySetDrugIndex {
+    // Keep the IN lists in a reasonable size
+    private static final int CHUNK_SIZE = 1000;
+    private static final String DRUG = "Drug";
+    private static final String CLASS_QUERY = "SELECT DB_ID, _class FROM DatabaseObject WHERE DB_ID IN ";
+    // Tables and columns of the attributes walked by hasDrug()
+    private static final String[][] CHILD_TABLES = {{"EntitySet_2_hasMember", "hasMember"},
+                                                    {"CandidateSet_2_hasCandidate", "hasCandidate"},
+                                                    {"Complex_2_hasComponent", "hasComponent"},
+                                                    {"Polymer_2_repeatedUnit", "repeatedUnit"}};
+
+    private static final Map<Long, Boolean> hasDrug = new ConcurrentHashMap<>();
+    private static final AtomicInteger hits = new AtomicInteger();
+    private static final AtomicInteger misses = new AtomicInteger();
+    private static final AtomicInteger queries = new AtomicInteger();
+
+    private EntitySetDrugIndex() {
+    }
+
+    /**
+     * Resolves the passed entity sets that are not known yet.
+     * @return the flag of every passed DB_ID: true if it contains a drug
+     */
+    static Map<Long, Boolean> resolve(Collection<Long> dbIds, MySQLAdaptor dba) throws Exception {
+        Map<Long, Boolean> rtn = new HashMap<>();
+        Set<Long> unknown = new HashSet<>();
+        for (Long dbId : dbIds) {
+            Boolean flag = hasDrug.get(dbId);
+            if (flag == null)
+                unknown.add(dbId);
+            else
+                rtn.put(dbId, flag);
+        }
+        hits.addAndGet(rtn.size());
+        if (unknown.isEmpty())
+            return rtn;
+        misses.addAndGet(unknown.size());
+        // Load the hierarchy under the unknown sets level by level. Known entities are not walked again.
+        Map<Long, Boolean> isDrug = new HashMap<>();
+        Map<Long, List<Long>> children = new HashMap<>();
+        Set<Long> current = new HashSet<>(unknown);
+        Connection connection = dba.getConnection();
+        while (current.size() > 0) {
+            loadClasses(connection, current, dba, isDrug);
+            loadChildren(connection, current, children);
+            Set<Long> next = new HashSet<>();
+            for (Long dbId : current) {
+                for (Long child : children.getOrDefault(dbId, Collections.emptyList())) {
+                    if (!isDrug.containsKey(child) && !hasDrug.containsKey(child))
+                        next.add(child);
+                }
+            }
+            current = next;
+        }
+        Map<Long, Boolean> computed = new HashMap<>();
+        for (Long dbId : unknown)
+            rtn.put(dbId, computeHasDrug(dbId, isDrug, children, computed, new HashSet<>()));
+        hasDrug.putAll(computed);
+        return rtn;
+    }
+
+    public static void clearCache() {
+        hasDrug.clear();
+    }
+
+    public static String getStatistics() {
+        return String.format("Entity set drug index: %d entries, %d hits, %d misses, %d queries",
+                             hasDrug.size(), hits.get(), misses.get(), queries.get());
+    }
+
+    private static boolean computeHasDrug(Long dbId,
+                                          Map<Long, Boolean> isDrug,
+                                          Map<Long, List<Long>> children,
+                                          Map<Long, Boolean> computed,
+                                          Set<Long> path) {
+        Boolean rtn = hasDrug.get(dbId);
+        if (rtn == null)
+            rtn = computed.get(dbId);
+        if (rtn != null)
+            return rtn;
+        if (Boolean.TRUE.equals(isDrug.get(dbId))) {
+            computed.put(dbId, Boolean.TRUE);
+            return true;
+        }
+        // Guard against a cycle in bad data
+        if (!path.add(dbId))
+            return false;
+        boolean found = false;
+        for (Long child : children.getOrDefault(dbId, Collections.emptyList())) {
+            if (computeHasDrug(child, isDrug, children, computed, path)) {
+                found = true;
+                break;
+            }
+        }
+        path.remove(dbId);
+        computed.put(dbId, found);
+        return found;
+    }
+
+    private static void loadClasses(Connection connection,
+                                    Set<Long> dbIds,
+                                    MySQLAdaptor dba,
+                                    Map<Long, Boolean> isDrug) throws Exception {
+        for (List<Long> chunk : chunk(dbIds)) {
+            try (PreparedStatement stat = prepare(connection, CLASS_QUERY, chunk)) {
+                try (ResultSet result = stat.executeQuery()) {
+                    while (result.next()) {
+                        SchemaClass cls = dba.getSchema().getClassByName(result.getString(2));
+                        isDrug.put(result.getLong(1), cls != null && cls.isa(DRUG));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void loadChildren(Connection connection,
+                                     Set<Long> dbIds,
+                                     Map<Long, List<Long>> children) throws SQLException {
+        for (List<Long> chunk : chunk(dbIds)) {
+            for (String[] table : CHILD_TABLES) {
+                String query = "SELECT DB_ID, " + table[1] + " FROM " + table[0] + " WHERE DB_ID IN ";
+                try (PreparedStatement stat = prepare(connection, query, chunk)) {
+                    try (ResultSet result = stat.executeQuery()) {
+                        while (result.next())
+                            children.computeIfAbsent(result.getLong(1), k -> new ArrayList<>()).add(result.getLong(2));
+                    }
+                }
+            }
+        }
+    }
+
+    private static PreparedStatement prepare(Connection connection, String query, List<Long> dbIds) throws SQLException {
+        StringBuilder builder = new StringBuilder(query).append("(");
+        for (int i = 0; i < dbIds.size(); i++)
+            builder.append(i == 0 ? "?" : ",?");
+        builder.append(")");
+        PreparedStatement stat = connection.prepareStatement(builder.toString());
+        for (int i = 0; i < dbIds.size(); i++)
+            stat.setLong(i + 1, dbIds.get(i));
+        queries.incrementAndGet();
+        return stat;
+    }
+
+    private static List<List<Long>> chunk(Set<Long> dbIds) {
+        List<Long> list = new ArrayList<>(dbIds);
+        List<List<Long>> rtn = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += CHUNK_SIZE)
+            rtn.add(list.subList(i, Math.min(i + CHUNK_SIZE, list.size())));
+        return rtn;
+    }
+
+}
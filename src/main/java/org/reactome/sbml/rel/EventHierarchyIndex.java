@@ -0,0 +1,170 @@
+package org.reactome.sbml.rel;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.gk.persistence.MySQLAdaptor;
+
+/**
+ * The whole hasEvent hierarchy of the release, loaded with two queries and kept in primitive arrays, so the
+ * events contained by a pathway are found without loading any pathway from the database. Events are numbered by
+ * the position of their DB_ID in a sorted array and the sub-events of each one are kept in compressed sparse rows:
+ * the sub-events of the event at position i are subEvents[offsets[i]] to subEvents[offsets[i + 1] - 1].
+ * It is built once per export and can be shared by all threads since it is never changed.
+ */
+public class EventHierarchyIndex {
+    private static final String HAS_EVENT_QUERY = "SELECT DB_ID, hasEvent FROM Pathway_2_hasEvent";
+    private static final String REACTION_QUERY = "SELECT DB_ID FROM ReactionlikeEvent";
+
+    // Sorted DB_IDs of all the events in the hierarchy and all reactions
+    private final long[] dbIds;
+    private final int[] offsets;
+    private final int[] subEvents;
+    private final BitSet reactions;
+
+    private EventHierarchyIndex(long[] dbIds, int[] offsets, int[] subEvents, BitSet reactions) {
+        this.dbIds = dbIds;
+        this.offsets = offsets;
+        this.subEvents = subEvents;
+        this.reactions = reactions;
+    }
+
+    public static EventHierarchyIndex load(MySQLAdaptor dba) throws SQLException {
+        LongList parents = new LongList();
+        LongList children = new LongList();
+        LongList reactionIds = new LongList();
+        Connection connection = dba.getConnection();
+        try (Statement stat = connection.createStatement()) {
+            try (ResultSet result = stat.executeQuery(HAS_EVENT_QUERY)) {
+                while (result.next()) {
+                    parents.add(result.getLong(1));
+                    children.add(result.getLong(2));
+                }
+            }
+            try (ResultSet result = stat.executeQuery(REACTION_QUERY)) {
+                while (result.next())
+                    reactionIds.add(result.getLong(1));
+            }
+        }
+        // Number all events
+        long[] all = new long[parents.size + children.size + reactionIds.size];
+        System.arraycopy(parents.values, 0, all, 0, parents.size);
+        System.arraycopy(children.values, 0, all, parents.size, children.size);
+        System.arraycopy(reactionIds.values, 0, all, parents.size + children.size, reactionIds.size);
+        Arrays.sort(all);
+        int size = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (i == 0 || all[i] != all[i - 1])
+                all[size++] = all[i];
+        }
+        long[] dbIds = Arrays.copyOf(all, size);
+        // Rows: count the sub-events of each event first, then fill them in
+        int[] offsets = new int[size + 1];
+        for (int i = 0; i < parents.size; i++)
+            offsets[Arrays.binarySearch(dbIds, parents.values[i]) + 1]++;
+        for (int i = 0; i < size; i++)
+            offsets[i + 1] += offsets[i];
+        int[] subEvents = new int[parents.size];
+        int[] next = Arrays.copyOf(offsets, size);
+        for (int i = 0; i < parents.size; i++) {
+            int parent = Arrays.binarySearch(dbIds, parents.values[i]);
+            subEvents[next[parent]++] = Arrays.binarySearch(dbIds, children.values[i]);
+        }
+        BitSet reactions = new BitSet(size);
+        for (int i = 0; i < reactionIds.size; i++)
+            reactions.set(Arrays.binarySearch(dbIds, reactionIds.values[i]));
+        return new EventHierarchyIndex(dbIds, offsets, subEvents, reactions);
+    }
+
+    /**
+     * @return true if the event is a pathway or a reaction known by this index
+     */
+    public boolean contains(long dbId) {
+        return Arrays.binarySearch(dbIds, dbId) >= 0;
+    }
+
+    public boolean isReaction(long dbId) {
+        int index = Arrays.binarySearch(dbIds, dbId);
+        return index >= 0 && reactions.get(index);
+    }
+
+    /**
+     * @return the DB_IDs of all the events under the passed one at any level, as InstanceUtilities.getContainedEvents()
+     * does. Empty if the event is not known.
+     */
+    public long[] getContainedEvents(long dbId) {
+        BitSet contained = getContained(dbId);
+        return toDbIds(contained, contained.cardinality());
+    }
+
+    /**
+     * @return the DB_IDs of all the reactions under the passed event at any level, including the event itself
+     * if it is a reaction. Empty if the event is not known.
+     */
+    public long[] getContainedReactions(long dbId) {
+        BitSet contained = getContained(dbId);
+        int index = Arrays.binarySearch(dbIds, dbId);
+        if (index >= 0)
+            contained.set(index);
+        contained.and(reactions);
+        return toDbIds(contained, contained.cardinality());
+    }
+
+    private BitSet getContained(long dbId) {
+        BitSet visited = new BitSet(dbIds.length);
+        int index = Arrays.binarySearch(dbIds, dbId);
+        if (index < 0)
+            return visited;
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = index;
+        while (top > 0) {
+            int current = stack[--top];
+            for (int i = offsets[current]; i < offsets[current + 1]; i++) {
+                int sub = subEvents[i];
+                if (visited.get(sub))
+                    continue;
+                visited.set(sub);
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = sub;
+            }
+        }
+        // A cycle would bring the event back
+        visited.clear(index);
+        return visited;
+    }
+
+    private long[] toDbIds(BitSet bits, int size) {
+        long[] rtn = new long[size];
+        int j = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+            rtn[j++] = dbIds[i];
+        return rtn;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Event hierarchy index: %d events, %d reactions, %d hasEvent links",
+                             dbIds.length, reactions.cardinality(), subEvents.length);
+    }
+
+    /**
+     * A growable array of longs, so the rows are not boxed while they are read
+     */
+    private static class LongList {
+        long[] values = new long[1024];
+        int size;
+
+        void add(long value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+}
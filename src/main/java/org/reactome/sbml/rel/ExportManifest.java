@@ -0,0 +1,317 @@
+package org.reactome.sbml.rel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.gk.persistence.MySQLAdaptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records, for every exported pathway, the DB_IDs of the instances its conversion depends on (see
+ * {@link PathwaySnapshot#getDependencies()}) together with a fingerprint of their _timestamp and latest modified
+ * InstanceEdit, and a fingerprint of the events contained by the pathway (so adding an event to any hasEvent under
+ * it is noticed too). The manifest of the previous export is used to find the pathways that did not change, so that
+ * their files are kept instead of converting them again.
+ * The first line has the Reactome version and the {@link #FORMAT} of the export. When either of them changed, every
+ * pathway is converted again. Then lines are tab separated: stable identifier, fingerprint, contained events
+ * fingerprint and the comma separated DB_IDs. Pathways that changed are removed until they are converted again, so a
+ * failed conversion is retried by the next export, and so are the pathways that no longer exist.
+ * It is shared by all the export threads and every thread passes its own {@link MySQLAdaptor}.
+ */
+public class ExportManifest {
+    public static final String FILE_NAME = "manifest.tsv";
+    /**
+     * To be increased whenever the exporter writes something different for the same data (e.g. new annotations or
+     * a new SBML level), so that the files written by the previous versions are not kept.
+     */
+    public static final int FORMAT = 2;
+    private static final Logger logger = LoggerFactory.getLogger(ExportManifest.class);
+    // Keep the IN lists in a reasonable size
+    private static final int CHUNK_SIZE = 1000;
+    private static final String RELEASE = "#release";
+    private static final String HEADER = "# stId\tfingerprint\tevents\tdependencies";
+    private static final String STID_QUERY = "SELECT d.DB_ID FROM DatabaseObject d " +
+                                             "JOIN StableIdentifier s ON s.DB_ID = d.stableIdentifier " +
+                                             "WHERE s.identifier = ?";
+    private static final String HAS_EVENT_QUERY = "SELECT hasEvent FROM Pathway_2_hasEvent WHERE DB_ID IN (";
+
+    private final File file;
+    private final Integer version;
+    private final Map<String, Entry> entries;
+    private final AtomicInteger kept = new AtomicInteger();
+
+    private ExportManifest(File file, Integer version, Map<String, Entry> entries) {
+        this.file = file;
+        this.version = version;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the manifest written by the previous export in the passed folder. An empty manifest is returned when
+     * there is none or it was written for another Reactome version or {@link #FORMAT}, so all pathways are converted.
+     * @param version the Reactome version being exported
+     */
+    public static ExportManifest load(File folder, Integer version) throws IOException {
+        File file = new File(folder, FILE_NAME);
+        Map<String, Entry> previous = new ConcurrentHashMap<>();
+        if (file.isFile()) {
+            String release = RELEASE + "\t" + version + "\t" + FORMAT;
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line = reader.readLine();
+                if (release.equals(line)) {
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty() || line.startsWith("#"))
+                            continue;
+                        String[] tokens = line.split("\t");
+                        if (tokens.length < 4)
+                            continue;
+                        List<Long> dependencies = new ArrayList<>();
+                        for (String dbId : tokens[3].split(","))
+                            dependencies.add(Long.parseLong(dbId));
+                        previous.put(tokens[0], new Entry(tokens[1], tokens[2], dependencies));
+                    }
+                    logger.info("Loaded " + previous.size() + " pathways from " + file);
+                }
+                else
+                    logger.info(file + " was written for another version or format. All pathways are converted");
+            }
+        }
+        return new ExportManifest(file, version, previous);
+    }
+
+    /**
+     * Checks if none of the instances the pathway depended on in the previous export has changed. In that case the
+     * pathway does not need to be converted again. Otherwise it is removed from the manifest.
+     * @param stId the pathway stable identifier
+     * @param dba used to read the current timestamps
+     * @return true if the previous output for the pathway is still valid
+     * @throws SQLException
+     */
+    public boolean isUpToDate(String stId, MySQLAdaptor dba) throws SQLException {
+        Entry entry = entries.get(stId);
+        if (entry == null)
+            return false;
+        if (!entry.events.equals(eventsFingerprint(stId, dba)) ||
+            !entry.fingerprint.equals(fingerprint(entry.dependencies, dba))) {
+            entries.remove(stId);
+            return false;
+        }
+        kept.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the dependencies of a converted pathway
+     * @param stId the pathway stable identifier
+     * @param dependencies the DB_IDs of the instances read to convert it
+     * @param dba used to read the current timestamps
+     * @throws SQLException
+     */
+    public void update(String stId, Collection<Long> dependencies, MySQLAdaptor dba) throws SQLException {
+        List<Long> sorted = new ArrayList<>(dependencies);
+        Collections.sort(sorted);
+        entries.put(stId, new Entry(fingerprint(sorted, dba), eventsFingerprint(stId, dba), sorted));
+    }
+
+    /**
+     * Removes the pathways whose stable identifier is not in the database anymore, since their files are not
+     * written again.
+     * @return the number of pathways removed
+     */
+    public int prune(MySQLAdaptor dba) throws SQLException {
+        List<String> stIds = new ArrayList<>(entries.keySet());
+        Set<String> existing = new HashSet<>();
+        try (Statement stat = dba.getConnection().createStatement()) {
+            for (int i = 0; i < stIds.size(); i += CHUNK_SIZE) {
+                String ids = stIds.subList(i, Math.min(i + CHUNK_SIZE, stIds.size())).stream()
+                        .map(stId -> "'" + stId.replace("'", "''") + "'")
+                        .collect(Collectors.joining(","));
+                String query = "SELECT s.identifier FROM StableIdentifier s " +
+                               "JOIN DatabaseObject d ON d.stableIdentifier = s.DB_ID " +
+                               "WHERE s.identifier IN (" + ids + ")";
+                try (ResultSet result = stat.executeQuery(query)) {
+                    while (result.next())
+                        existing.add(result.getString(1));
+                }
+            }
+        }
+        int pruned = 0;
+        for (String stId : stIds) {
+            if (!existing.contains(stId) && entries.remove(stId) != null)
+                pruned++;
+        }
+        return pruned;
+    }
+
+    /**
+     * @return the number of pathways found to be up to date so far
+     */
+    public int getKept() {
+        return kept.get();
+    }
+
+    /**
+     * Writes the manifest to a temporary file and moves it over the previous one, so an interrupted export
+     * never leaves a truncated manifest behind. It is saved after every species, so an interrupted export
+     * keeps what was converted until then.
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(RELEASE + "\t" + version + "\t" + FORMAT);
+            writer.newLine();
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+                writer.write(e.getKey());
+                writer.write('\t');
+                writer.write(e.getValue().fingerprint);
+                writer.write('\t');
+                writer.write(e.getValue().events);
+                writer.write('\t');
+                writer.write(e.getValue().dependencies.stream().map(String::valueOf).collect(Collectors.joining(",")));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Digest of the _timestamp and the latest modified InstanceEdit of every passed DB_ID. Deleted instances are
+     * part of the digest too, so removing a dependency changes the fingerprint.
+     * @param dbIds sorted DB_IDs
+     */
+    private String fingerprint(List<Long> dbIds, MySQLAdaptor dba) throws SQLException {
+        Map<Long, String> stamps = new TreeMap<>();
+        try (Statement stat = dba.getConnection().createStatement()) {
+            for (int i = 0; i < dbIds.size(); i += CHUNK_SIZE) {
+                String ids = dbIds.subList(i, Math.min(i + CHUNK_SIZE, dbIds.size())).stream()
+                        .map(String::valueOf)
+                        .collect(Collectors.joining(","));
+                String query = "SELECT d.DB_ID, d._timestamp, MAX(m.modified) FROM DatabaseObject d " +
+                               "LEFT JOIN DatabaseObject_2_modified m ON m.DB_ID = d.DB_ID " +
+                               "WHERE d.DB_ID IN (" + ids + ") GROUP BY d.DB_ID, d._timestamp";
+                try (ResultSet result = stat.executeQuery(query)) {
+                    while (result.next()) {
+                        Timestamp timestamp = result.getTimestamp(2);
+                        stamps.put(result.getLong(1), (timestamp == null ? "" : timestamp.getTime()) + ":" + result.getLong(3));
+                    }
+                }
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Long dbId : dbIds)
+            builder.append(dbId).append('=').append(stamps.getOrDefault(dbId, "-")).append(';');
+        return digest(builder);
+    }
+
+    /**
+     * Digest of the sorted DB_IDs of the events currently contained by the pathway at any level, taken from the
+     * {@link EventHierarchyIndex} when it has been loaded.
+     * @return "-" if there is no pathway with the passed stable identifier
+     */
+    private String eventsFingerprint(String stId, MySQLAdaptor dba) throws SQLException {
+        Long dbId = null;
+        try (PreparedStatement stat = dba.getConnection().prepareStatement(STID_QUERY)) {
+            stat.setString(1, stId);
+            try (ResultSet result = stat.executeQuery()) {
+                if (result.next())
+                    dbId = result.getLong(1);
+            }
+        }
+        if (dbId == null)
+            return "-";
+        long[] contained;
+        EventHierarchyIndex index = PathwaySnapshot.getEventHierarchy();
+        if (index != null && index.contains(dbId))
+            contained = index.getContainedEvents(dbId);
+        else
+            contained = getContainedEvents(dbId, dba);
+        Arrays.sort(contained);
+        StringBuilder builder = new StringBuilder();
+        for (long event : contained)
+            builder.append(event).append(';');
+        return digest(builder);
+    }
+
+    /**
+     * Walks down the hasEvent hierarchy under the passed event, a level per query
+     */
+    private long[] getContainedEvents(Long dbId, MySQLAdaptor dba) throws SQLException {
+        Set<Long> contained = new HashSet<>();
+        List<Long> level = Collections.singletonList(dbId);
+        try (Statement stat = dba.getConnection().createStatement()) {
+            while (!level.isEmpty()) {
+                List<Long> next = new ArrayList<>();
+                for (int i = 0; i < level.size(); i += CHUNK_SIZE) {
+                    String ids = level.subList(i, Math.min(i + CHUNK_SIZE, level.size())).stream()
+                            .map(String::valueOf)
+                            .collect(Collectors.joining(","));
+                    try (ResultSet result = stat.executeQuery(HAS_EVENT_QUERY + ids + ")")) {
+                        while (result.next()) {
+                            long event = result.getLong(1);
+                            if (contained.add(event))
+                                next.add(event);
+                        }
+                    }
+                }
+                level = next;
+            }
+        }
+        // A cycle would bring the event back
+        contained.remove(dbId);
+        return contained.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static String digest(StringBuilder builder) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(builder.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // SHA-1 is available in every JVM
+        }
+    }
+
+    private static class Entry {
+        private final String fingerprint;
+        private final String events;
+        private final List<Long> dependencies;
+
+        private Entry(String fingerprint, String events, List<Long> dependencies) {
+            this.fingerprint = fingerprint;
+            this.events = events;
+            this.dependencies = dependencies;
+        }
+    }
+
+}
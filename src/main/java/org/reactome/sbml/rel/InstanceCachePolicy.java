@@ -0,0 +1,98 @@
+package org.reactome.sbml.rel;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.reactome.server.tools.sbml.util.HeapMonitor;
+import org.reactome.server.tools.sbml.util.LongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the instance cache of a {@link MySQLAdaptor}, which otherwise keeps every GKInstance loaded during a whole
+ * export. The instances used by each conversion are counted once it finishes and the whole cache is cleared when
+ * there are more than the maximum, or when the heap is above the {@link HeapMonitor} threshold.
+ * The cache is only cleared as a whole and between conversions: cached instances refer to each other, so removing
+ * some of them frees nothing while they are referenced and fetching them again would create a second GKInstance for
+ * the same DB_ID.
+ * Each export thread has its own adaptor and so its own policy. The counters are shared by all of them.
+ */
+public class InstanceCachePolicy {
+    private static final Logger logger = LoggerFactory.getLogger(InstanceCachePolicy.class);
+    public static final int DEFAULT_MAX_INSTANCES = 100000;
+    private static volatile int maxInstances = DEFAULT_MAX_INSTANCES;
+    private static final AtomicLong sizeClears = new AtomicLong();
+    private static final AtomicLong heapClears = new AtomicLong();
+    private static final AtomicLong clearedInstances = new AtomicLong();
+    private final MySQLAdaptor dba;
+    // DB_IDs of the instances used since the cache was last cleared
+    private final LongHashSet instances = new LongHashSet();
+    // Collections seen when the cache was last cleared because of the heap
+    private long releasedAt = -1L;
+
+    public InstanceCachePolicy(MySQLAdaptor dba) {
+        this.dba = dba;
+    }
+
+    /**
+     * Set the number of instances above which the cache of each adaptor is cleared
+     */
+    public static void setMaxInstances(int max) {
+        if (max < 0)
+            throw new IllegalArgumentException("The maximum number of instances cannot be negative: " + max);
+        maxInstances = max;
+    }
+
+    /**
+     * Record the instances used by a finished conversion and clear the cache if needed.
+     * @param loaded the instances loaded by the conversion
+     * @param dependencies the DB_IDs of all the instances read by the conversion. It may be null
+     */
+    public void release(Collection<GKInstance> loaded, Collection<Long> dependencies) {
+        for (GKInstance instance : loaded) {
+            if (instance.getDBID() != null)
+                instances.add(instance.getDBID());
+        }
+        if (dependencies != null) {
+            for (Long dbId : dependencies)
+                instances.add(dbId);
+        }
+        boolean heap = false;
+        // The heap is only measured after a collection, so the cache is not cleared twice for the same measure
+        long collections = HeapMonitor.getCollections();
+        if (collections != releasedAt && HeapMonitor.isAboveThreshold()) {
+            heap = true;
+            releasedAt = collections;
+        }
+        if (!heap && instances.size() <= maxInstances)
+            return;
+        int size = instances.size();
+        try {
+            dba.refresh();
+        }
+        catch(Exception e) {
+            logger.warn("Cannot clear the instance cache: " + e.getMessage(), e);
+            return;
+        }
+        instances.clear();
+        clearedInstances.addAndGet(size);
+        if (heap) {
+            heapClears.incrementAndGet();
+            logger.info(String.format("Heap above %.0f%%: instance cache cleared (%d instances)",
+                                      HeapMonitor.getThreshold() * 100, size));
+        }
+        else
+            sizeClears.incrementAndGet();
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    public static String getStatistics() {
+        return String.format("Instance cache policy: max %d instances per thread, cleared %d times by size and %d times by heap (threshold %.0f%%), %d instances released",
+                             maxInstances, sizeClears.get(), heapClears.get(), HeapMonitor.getThreshold() * 100, clearedInstances.get());
+    }
+}
@@ -11,10 +11,8 @@ import static org.gk.model.ReactomeJavaConstants.summation;
 import static org.gk.model.ReactomeJavaConstants.text;
 import static org.gk.model.ReactomeJavaConstants.pubMedIdentifier;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -38,6 +36,7 @@ import org.reactome.server.graph.domain.model.PsiMod;
 import org.reactome.server.graph.domain.model.Publication;
 import org.reactome.server.graph.domain.model.Summation;
 import org.reactome.server.graph.domain.model.TranslationalModification;
+import org.reactome.server.tools.sbml.converter.UrlResolver;
 import org.reactome.server.tools.sbml.data.model.IdentifierBase;
 import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
 import org.reactome.server.tools.sbml.data.model.ReactionBase;
@@ -53,46 +52,41 @@ import org.slf4j.LoggerFactory;
 @SuppressWarnings("unchecked")
 public class InstanceToModelConverter {
     private static Logger logger = LoggerFactory.getLogger(InstanceToModelConverter.class);
-    // This should be fixed and hard coded since it must be true!
-    private final String MODEL_PACKAGE_NAME = "org.reactome.server.graph.domain.model";
-    // Converted values are catched
-    private Map<GKInstance, DatabaseObject> instToObj;
+    // Converted values are cached by DB_ID. The cache may be shared by all pathways in a release.
+    private DatabaseObjectCache cache;
     private ReactionHandler reactionHandler;
     
     public InstanceToModelConverter() {
-        instToObj = new HashMap<>();
+        cache = new DatabaseObjectCache();
         reactionHandler = new ReactionHandler(this);
     }
     
-    void reset() {
-        instToObj.clear();
+    public void setCache(DatabaseObjectCache cache) {
+        this.cache = cache;
+    }
+    
+    public DatabaseObjectCache getCache() {
+        return cache;
     }
     
     public DatabaseObject convert(GKInstance instance) throws Exception {
-        DatabaseObject rtn = instToObj.get(instance);
+        DatabaseObject rtn = cache.get(instance.getDBID());
         if (rtn != null)
             return rtn;
-        String instClsName = instance.getSchemClass().getName();
-        Class<?> modelCls = Class.forName(MODEL_PACKAGE_NAME + "." + instClsName);
-        Object obj = modelCls.getDeclaredConstructor().newInstance();
-        if (!(obj instanceof DatabaseObject)) {
-            throw new IllegalArgumentException(instClsName + " is not defined.");
-        }
-        rtn = (DatabaseObject) obj;
+        rtn = ModelAccessors.forSchemaClass(instance.getSchemClass().getName()).newInstance();
         rtn.setDbId(instance.getDBID());
         rtn.setDisplayName(instance.getDisplayName());
         // Also need stable id
         GKInstance stableId = (GKInstance) instance.getAttributeValue(ReactomeJavaConstants.stableIdentifier);
         if (stableId != null)
             rtn.setStId((String)stableId.getAttributeValue(ReactomeJavaConstants.identifier));
-        instToObj.put(instance, rtn);
-        return rtn;
+        // Another thread may have converted the same instance in the meantime
+        return cache.putIfAbsent(instance.getDBID(), rtn);
     }
     
     public void fillInReactionDetails(GKInstance rle, ReactionBase reactionBase) throws Exception {
-        handleInstance(rle, reactionBase.getReactionLikeEvent(), Set.class);
+        fillInEventDetails(rle, reactionBase.getReactionLikeEvent());
         reactionHandler.handleReactionParticipants(rle, reactionBase);
-        handleInstanceEdits(rle, reactionBase.getReactionLikeEvent());
         reactionHandler.handleGO(rle, reactionBase);
         reactionHandler.setLiteratureRefs(rle, reactionBase);
         reactionHandler.setDiseases(rle, reactionBase);
@@ -100,8 +94,20 @@ public class InstanceToModelConverter {
     }
     
     public void fillInPathwayDetails(GKInstance pathwayInst, Pathway pathwayObj) throws Exception {
-        handleInstance(pathwayInst, pathwayObj, Set.class);
-        handleInstanceEdits(pathwayInst, pathwayObj);
+        fillInEventDetails(pathwayInst, pathwayObj);
+    }
+    
+    /**
+     * Attributes of a cached object are the same for every pathway, so they are filled in only once.
+     */
+    private void fillInEventDetails(GKInstance event, DatabaseObject eventObj) throws Exception {
+        synchronized (eventObj) {
+            if (cache.isFilled(event.getDBID(), eventObj))
+                return;
+            handleInstance(event, eventObj, Set.class);
+            handleInstanceEdits(event, eventObj);
+            cache.setFilled(event.getDBID(), eventObj);
+        }
     }
     
     private void handleInstanceEdits(GKInstance rle, DatabaseObject rleObj) throws Exception {
@@ -145,7 +151,13 @@ public class InstanceToModelConverter {
     }
     
     public void fillInPEDetails(GKInstance pe, ParticipantDetails details) throws Exception {
-        handleInstance(pe, details.getPhysicalEntity(), List.class);
+        DatabaseObject peObj = details.getPhysicalEntity();
+        synchronized (peObj) {
+            if (!cache.isFilled(pe.getDBID(), peObj)) {
+                handleInstance(pe, peObj, List.class);
+                cache.setFilled(pe.getDBID(), peObj);
+            }
+        }
         handleReferencEntities(pe, details);
     }
     
@@ -230,10 +242,7 @@ public class InstanceToModelConverter {
                                                                    String attName,
                                                                    Class<?> attType,
                                                                    ValueAssigner<T> assigner) throws Exception {
-        Method method = getSetMethod(obj, attName, attType);
-        if (method == null)
-            return; // Cannot do anything
-        logger.debug(obj.getClass().getName() + "." + attName + " -> " + method);
+        ModelAccessors.Setter method = getSetMethod(obj, attName, attType);
         if (attType.equals(Set.class) || attType.equals(List.class)) {
             Collection<T> valueObjList = null;
             if (attType.equals(Set.class))
@@ -241,7 +250,7 @@ public class InstanceToModelConverter {
             else
                 valueObjList = new ArrayList<>();
             if (values == null || values.size() == 0)
-                method.invoke(obj, valueObjList);
+                method.set(obj, valueObjList);
             else {
                 for (GKInstance value : values) {
                     // We have to cast a DatabaseObject into a specific subtype
@@ -249,31 +258,47 @@ public class InstanceToModelConverter {
                     T compObj = (T) convert(value);
                     valueObjList.add(compObj);
                     if (assigner != null)
-                        assigner.assign(value, compObj);
+                        assign(value, compObj, assigner);
                 }
-                method.invoke(obj, valueObjList);
+                method.set(obj, valueObjList);
             }
         }
         else {
             if (values == null || values.size() == 0)
-                method.invoke(obj, (T) null); // Casting null is silly. But makes compiler happy.
+                method.set(obj, null);
             else {
                 GKInstance value = values.get(0);
                 T compObj = (T) convert(value);
                 if (assigner != null)
-                    assigner.assign(value, compObj);
-                method.invoke(obj, compObj);
+                    assign(value, compObj, assigner);
+                method.set(obj, compObj);
             }
         }
     }
     
-    private Method getSetMethod(DatabaseObject peObj,
-                                String attName,
-                                Class<?> type) throws Exception {
-        String methodName = "set" + attName.substring(0, 1).toUpperCase() + attName.substring(1);
-//        System.out.println(methodName + " -> " + peObj);
-        Method rtn = peObj.getClass().getMethod(methodName, type);
-        return rtn;
+    /**
+     * Cached values (compartments, summations, instance edits...) are shared by all the objects referring to them,
+     * also in other threads, so they are filled in once under their own lock as events and entities are. Every
+     * thread goes through this lock before using the value, which also makes the filled in attributes visible to it.
+     */
+    private <T extends DatabaseObject> void assign(GKInstance value,
+                                                   T valueObj,
+                                                   ValueAssigner<T> assigner) throws Exception {
+        synchronized (valueObj) {
+            if (cache.isFilled(value.getDBID(), valueObj))
+                return;
+            assigner.assign(value, valueObj);
+            cache.setFilled(value.getDBID(), valueObj);
+        }
+    }
+
+    /**
+     * The setters are looked up once per model class and attribute, and then taken from a table.
+     */
+    private ModelAccessors.Setter getSetMethod(DatabaseObject peObj,
+                                               String attName,
+                                               Class<?> type) throws Exception {
+        return ModelAccessors.forModelClass(peObj.getClass()).getSetter(attName, type);
     }
 
     private void handleReferencEntities(GKInstance pe, ParticipantDetails details)
@@ -331,15 +356,21 @@ public class InstanceToModelConverter {
         GKInstance refDb = (GKInstance) inst.getAttributeValue(ReactomeJavaConstants.referenceDatabase);
         if (refDb == null)
             logger.error(inst + " doesn't have a referenceDatabase assigned.");
-        String accessUrl = (String) refDb.getAttributeValue(ReactomeJavaConstants.accessUrl);
-        if (accessUrl == null)
-            logger.error(refDb + " doesn't have an accessUrl assigned.");
+        // The accessUrl is the same for all identifiers of a ReferenceDatabase and is shared across pathways
+        UrlResolver.AccessUrl accessUrl = UrlResolver.getAccessUrl(refDb.getDBID());
+        if (accessUrl == null) {
+            String url = (String) refDb.getAttributeValue(ReactomeJavaConstants.accessUrl);
+            if (url == null)
+                logger.error(refDb + " doesn't have an accessUrl assigned.");
+            else
+                accessUrl = UrlResolver.putAccessUrl(refDb.getDBID(), url);
+        }
         String id = (String) inst.getAttributeValue(idAttName);
         if (id ==  null)
             logger.error(inst + " doesn't have a value assigned for " + idAttName + ".");
         if (accessUrl == null || id == null)
             return null;
-        return accessUrl.replace("###ID###", id);
+        return accessUrl.expand(id);
     }
     
     @FunctionalInterface interface ValueAssigner<T extends DatabaseObject> {
@@ -7,13 +7,15 @@ import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.gk.graphEditor.PathwayEditor;
 import org.gk.model.GKInstance;
-import org.gk.model.InstanceUtilities;
 import org.gk.model.PersistenceAdaptor;
 import org.gk.model.ReactomeJavaConstants;
 import org.gk.pathwaylayout.PathwayDiagramGeneratorViaAT;
@@ -34,6 +36,7 @@ import org.gk.render.RenderableRNA;
 import org.gk.render.RenderableRNADrug;
 import org.gk.render.RenderableReaction;
 import org.reactome.server.tools.sbml.converter.SbmlConverter;
+import org.reactome.server.tools.sbml.util.PathwayMetrics;
 import org.sbml.jsbml.Compartment;
 import org.sbml.jsbml.ListOf;
 import org.sbml.jsbml.Model;
@@ -66,7 +69,37 @@ public class LayoutConverter {
     public static final String TEXT_PREFIX = "text_";
     private static final Logger logger = LoggerFactory.getLogger(LayoutConverter.class);
     private static final double SHIFT_VALUE = 0.5d;
+    // Number of differences logged for a pathway in the PARITY mode
+    private static final int MAX_LOGGED_DIFFERENCES = 10;
+    private static ValidationMode validationMode = ValidationMode.RASTER;
+    // Validated geometries kept across exports. It may be null
+    private static DiagramCache diagramCache;
     private MySQLAdaptor dba;
+    // Time spent on the layout of the converted pathway. It may be null
+    private PathwayMetrics metrics;
+
+    /**
+     * How the points and bounds of a diagram are validated before they are converted.
+     */
+    public enum ValidationMode {
+        /** Paints the diagram twice on an image of its size, as it was originally done */
+        RASTER,
+        /**
+         * Paints the diagram twice without drawing anything, only computing font metrics and geometry. It has to
+         * give the same layout as RASTER (check it with PARITY on a whole release) before being used by default.
+         */
+        GEOMETRY,
+        /** Validates with both and logs any difference. The layout is taken from RASTER */
+        PARITY;
+
+        public static ValidationMode parse(String name) {
+            for (ValidationMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name))
+                    return mode;
+            }
+            throw new IllegalArgumentException("Unknown layout validation '" + name + "'. Use 'geometry', 'raster' or 'parity'");
+        }
+    }
 
     public LayoutConverter() {
     }
@@ -75,53 +108,255 @@ public class LayoutConverter {
         this.dba = dba;
     }
 
+    public void setMetrics(PathwayMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public static void setValidationMode(ValidationMode mode) {
+        validationMode = mode;
+    }
+
+    public static ValidationMode getValidationMode() {
+        return validationMode;
+    }
+
+    public static void setDiagramCache(DiagramCache cache) {
+        diagramCache = cache;
+    }
+
     public void addLayout(Model model,
                           GKInstance pathway,
-                          RenderablePathway diagram) {
+                          DiagramGeometry diagram) {
         if (diagram == null) {
             logger.error("No diagram is provided for adding layout for model: " + 
                           model.getName() + " converted from " + pathway + ".");
             return;
         }
+        if (metrics != null)
+            metrics.start(PathwayMetrics.Stage.LAYOUT);
         try {
             logger.info("Adding layout for " + pathway + "...");
-            validateLayout(diagram);
             // The following code is modified from https://github.com/sbmlteam/jsbml/blob/master/extensions/layout/test/org/sbml/jsbml/ext/layout/test/CurveSegmentTest.java
             LayoutModelPlugin lModel = new LayoutModelPlugin(model);
             model.addExtension(LayoutConstants.namespaceURI,
                                lModel);
             Layout layout = lModel.createLayout();
             handleCompartments(layout, diagram);
-            handleNodes(layout, diagram);
+            handleNodes(layout, diagram, resolveEntitySets(diagram));
             handleReactions(layout, diagram);
             logger.info("Done layout.");
         }
         catch(Exception e) {
             logger.error(e.getMessage(), e);
         }
+        finally {
+            if (metrics != null)
+                metrics.stop();
+        }
+    }
+    
+    /**
+     * Gets the validated geometry of the diagram of the pathway, from the {@link DiagramCache} if the diagram
+     * has not changed since it was kept.
+     * @return null if the pathway has no diagram, the diagram has no reactions or it cannot be validated
+     */
+    public DiagramGeometry getGeometry(GKInstance pathway) throws Exception {
+        if (metrics != null)
+            metrics.start(PathwayMetrics.Stage.LAYOUT);
+        try {
+            return loadGeometry(pathway);
+        }
+        finally {
+            if (metrics != null)
+                metrics.stop();
+        }
+    }
+    
+    private DiagramGeometry loadGeometry(GKInstance pathway) throws Exception {
+        // The PARITY mode is used to compare both validations, so nothing is taken from the cache
+        boolean useCache = diagramCache != null && dba != null && validationMode != ValidationMode.PARITY;
+        DiagramCache.Stamp stamp = null;
+        if (useCache) {
+            stamp = diagramCache.getStamp(pathway.getDBID(), validationMode.name(), dba);
+            if (stamp == null)
+                return null; // No diagram
+            DiagramGeometry geometry = diagramCache.get(stamp, dba);
+            if (geometry == DiagramCache.NO_LAYOUT)
+                return null;
+            if (geometry != null)
+                return geometry;
+        }
+        RenderablePathway diagram = null;
+        if (stamp == null)
+            diagram = getDiagram(pathway);
+        else {
+            GKInstance diagramInst = dba.fetchInstance(stamp.diagramId);
+            if (diagramInst != null)
+                diagram = new DiagramGKBReader().openDiagram(diagramInst);
+        }
+        if (diagram == null)
+            return null;
+        if (!hasReactions(diagram)) {
+            if (stamp != null)
+                diagramCache.put(stamp, DiagramCache.NO_LAYOUT, dba);
+            return null;
+        }
+        DiagramGeometry geometry;
+        try {
+            if (validationMode == ValidationMode.PARITY)
+                diagram = validateWithParity(pathway, diagram);
+            else
+                validateLayout(diagram, validationMode == ValidationMode.GEOMETRY);
+            geometry = extractGeometry(diagram);
+        }
+        catch(Exception e) {
+            logger.error("Cannot validate the diagram of " + pathway + ": " + e.getMessage(), e);
+            return null;
+        }
+        if (stamp != null)
+            diagramCache.put(stamp, geometry, dba);
+        return geometry;
+    }
+    
+    /**
+     * Takes the points and bounds used by the layout from a validated diagram. The reactions are completed
+     * with the points required by SBML at the same time.
+     */
+    private DiagramGeometry extractGeometry(RenderablePathway diagram) {
+        List<Renderable> comps = diagram.getComponents();
+        DiagramGeometry rtn = new DiagramGeometry(diagram.getReactomeDiagramId(), getDiagramBounds(comps));
+        for (Renderable comp : comps) {
+            if (comp instanceof RenderableCompartment) {
+                Node node = (Node) comp;
+                rtn.getCompartments().add(new DiagramGeometry.Shape(node.getID(), 
+                                                                    node.getReactomeId(), 
+                                                                    node.getDisplayName(), 
+                                                                    null,
+                                                                    node.getBounds(),
+                                                                    node.getTextBounds()));
+            }
+            else if ((comp instanceof Node) && (comp.getReactomeId() != null)) {
+                Node node = (Node) comp;
+                rtn.getNodes().add(new DiagramGeometry.Shape(node.getID(), 
+                                                             node.getReactomeId(), 
+                                                             node.getDisplayName(), 
+                                                             getSBOTerm(node),
+                                                             getNodeRect(node),
+                                                             node.getTextBounds()));
+            }
+            else if ((comp instanceof RenderableReaction) && (comp.getReactomeId() != null)) {
+                RenderableReaction rxt = (RenderableReaction) comp;
+                manipulateReactionPoints(rxt);
+                DiagramGeometry.Reaction reaction = new DiagramGeometry.Reaction(rxt.getID(),
+                                                                                 rxt.getReactomeId(),
+                                                                                 rxt.getPosition(),
+                                                                                 rxt.getBackbonePoints());
+                reaction.setNodes(DiagramGeometry.Role.INPUT, getIds(rxt.getInputNodes()), rxt.getInputPoints());
+                reaction.setNodes(DiagramGeometry.Role.OUTPUT, getIds(rxt.getOutputNodes()), rxt.getOutputPoints());
+                reaction.setNodes(DiagramGeometry.Role.CATALYST, getIds(rxt.getHelperNodes()), rxt.getHelperPoints());
+                reaction.setNodes(DiagramGeometry.Role.ACTIVATOR, getIds(rxt.getActivatorNodes()), rxt.getActivatorPoints());
+                reaction.setNodes(DiagramGeometry.Role.INHIBITOR, getIds(rxt.getInhibitorNodes()), rxt.getInhibitorPoints());
+                rtn.getReactions().add(reaction);
+            }
+        }
+        return rtn;
+    }
+    
+    private List<Integer> getIds(List<Node> nodes) {
+        if (nodes == null)
+            return Collections.emptyList();
+        return nodes.stream().map(Node::getID).collect(Collectors.toList());
     }
     
-    private void validateLayout(RenderablePathway diagram) {
+    private void validateLayout(RenderablePathway diagram, boolean geometryOnly) {
         // Force to make sure all points are correct validated
         PathwayEditor pathwayEditor = new PathwayEditor();
         pathwayEditor.setRenderable(diagram);
         PathwayDiagramGeneratorViaAT helper = new PathwayDiagramGeneratorViaAT();
-        helper.paintOnImage(pathwayEditor);
+        if (geometryOnly)
+            paintGeometry(pathwayEditor);
+        else
+            helper.paintOnImage(pathwayEditor);
         // Do a tight node for avoiding text overflow
         // Entities in predicted diagrams have weird "name copied from...",
         // which may bloat the sizes of nodes there.
         pathwayEditor.tightNodes(true);
-        helper.paintOnImage(pathwayEditor);
+        if (geometryOnly)
+            paintGeometry(pathwayEditor);
+        else
+            helper.paintOnImage(pathwayEditor);
     }
     
-    private void handleReactions(Layout layout, RenderablePathway diagram) {
-        List<Renderable> comps = diagram.getComponents();
-        for (Renderable comp : comps) {
-            if ((comp instanceof RenderableReaction) && (comp.getReactomeId() != null)) {
-                RenderableReaction rxt = (RenderableReaction) comp;
-                handleReaction(layout, rxt);
+    /**
+     * The renderers validate bounds and points while painting, so the diagram is painted on a graphics that
+     * does not draw anything instead of an image as large as the diagram. It is clipped to the size of the
+     * diagram as the image is, since the renderers skip what is outside the clip.
+     */
+    private void paintGeometry(PathwayEditor pathwayEditor) {
+        GeometryGraphics g = new GeometryGraphics();
+        g.setClip(new Rectangle(pathwayEditor.getPreferredSize()));
+        try {
+            pathwayEditor.paint(g);
+        }
+        finally {
+            g.dispose();
+        }
+    }
+    
+    /**
+     * Validates the given diagram without rasterizing and a second copy of it as before, and logs the nodes
+     * and reactions whose geometry differs.
+     * @return the copy validated by rasterizing
+     */
+    private RenderablePathway validateWithParity(GKInstance pathway, RenderablePathway diagram) throws Exception {
+        validateLayout(diagram, true);
+        RenderablePathway reference = getDiagram(pathway);
+        validateLayout(reference, false);
+        Map<Integer, String> expected = describeGeometry(reference);
+        Map<Integer, String> actual = describeGeometry(diagram);
+        int differences = 0;
+        for (Integer id : expected.keySet()) {
+            String value = actual.get(id);
+            if (expected.get(id).equals(value))
+                continue;
+            if (differences++ < MAX_LOGGED_DIFFERENCES)
+                logger.warn("Layout parity for " + pathway + ", renderable " + id + ": raster " + 
+                            expected.get(id) + ", geometry " + value);
+        }
+        if (differences == 0)
+            logger.info("Layout parity for " + pathway + ": the geometry of " + expected.size() + " renderables is the same.");
+        else
+            logger.warn("Layout parity for " + pathway + ": " + differences + " of " + expected.size() + " renderables differ.");
+        return reference;
+    }
+    
+    /**
+     * @return the validated points and bounds used by the layout, by renderable id
+     */
+    private Map<Integer, String> describeGeometry(RenderablePathway diagram) {
+        Map<Integer, String> rtn = new HashMap<>();
+        for (Renderable r : (List<Renderable>) diagram.getComponents()) {
+            if (r instanceof Node) {
+                Node node = (Node) r;
+                rtn.put(r.getID(), node.getBounds() + " " + node.getTextBounds());
+            }
+            else if (r instanceof RenderableReaction) {
+                RenderableReaction rxt = (RenderableReaction) r;
+                rtn.put(r.getID(), rxt.getPosition() + " " + 
+                                   rxt.getBackbonePoints() + " " + 
+                                   rxt.getInputPoints() + " " + 
+                                   rxt.getOutputPoints() + " " + 
+                                   rxt.getHelperPoints() + " " + 
+                                   rxt.getActivatorPoints() + " " + 
+                                   rxt.getInhibitorPoints());
             }
         }
+        return rtn;
+    }
+    
+    private void handleReactions(Layout layout, DiagramGeometry diagram) {
+        for (DiagramGeometry.Reaction rxt : diagram.getReactions())
+            handleReaction(layout, rxt);
     }
     
     /**
@@ -175,21 +410,21 @@ public class LayoutConverter {
      * @param layout
      * @param rxt
      */
-    private void handleReaction(Layout layout, RenderableReaction rxt) {
-        String rxtId = SbmlConverter.REACTION_PREFIX + rxt.getReactomeId();
+    private void handleReaction(Layout layout, DiagramGeometry.Reaction rxt) {
+        String rxtId = SbmlConverter.REACTION_PREFIX + rxt.reactomeId;
         if (!layout.getModel().containsReaction(rxtId))
             return;
-        manipulateReactionPoints(rxt);
-        List<java.awt.Point> backbonePoints = rxt.getBackbonePoints();
+        // The points have been completed by manipulateReactionPoints() when the geometry was extracted
+        List<java.awt.Point> backbonePoints = rxt.backbone;
         // Basic requirement for converting
         if (backbonePoints.size() < 3) {
-            logger.error("The backbone of reaction with DB_ID " + rxt.getReactomeId() + " has less than 3 points.");
+            logger.error("The backbone of reaction with DB_ID " + rxt.reactomeId + " has less than 3 points.");
             return;
         }
         java.awt.Point inputHub = backbonePoints.get(0);
         java.awt.Point outputHub = backbonePoints.get(backbonePoints.size() - 1);
-        java.awt.Point reactionHub = rxt.getPosition();
-        String layoutId = LAYOUT_ID_PREFIX + rxt.getID();
+        java.awt.Point reactionHub = rxt.position;
+        String layoutId = LAYOUT_ID_PREFIX + rxt.id;
         ReactionGlyph rg = layout.createReactionGlyph(layoutId);
         rg.setReaction(rxtId);
         // Position as a bounding box
@@ -198,55 +433,45 @@ public class LayoutConverter {
         Curve curve = rg.createCurve();
         convertToCurve(backbonePoints, curve);
         // Input
-        List<Node> inputs = rxt.getInputNodes();
-        List<List<java.awt.Point>> inputPoints = rxt.getInputPoints();
-        handleBranches(inputs,
-                       inputPoints,
+        handleBranches(rxt.getNodeIds(DiagramGeometry.Role.INPUT),
+                       rxt.getBranches(DiagramGeometry.Role.INPUT),
                        inputHub,
                        SpeciesReferenceRole.SUBSTRATE,
                        rg,
                        layoutId);
         // output
-        List<Node> outputs = rxt.getOutputNodes();
-        List<List<java.awt.Point>> outputPoints = rxt.getOutputPoints();
-        handleBranches(outputs,
-                       outputPoints,
+        handleBranches(rxt.getNodeIds(DiagramGeometry.Role.OUTPUT),
+                       rxt.getBranches(DiagramGeometry.Role.OUTPUT),
                        outputHub,
                        SpeciesReferenceRole.PRODUCT,
                        rg,
                        layoutId);
         // Catalysts
-        List<Node> catalysts = rxt.getHelperNodes();
-        List<List<java.awt.Point>> catalystPoints = rxt.getHelperPoints();
-        handleBranches(catalysts,
-                       catalystPoints,
+        handleBranches(rxt.getNodeIds(DiagramGeometry.Role.CATALYST),
+                       rxt.getBranches(DiagramGeometry.Role.CATALYST),
                        reactionHub,
                        SpeciesReferenceRole.MODIFIER, // This may not be right
                        rg,
                        layoutId);
         // Activators
-        List<Node> activators = rxt.getActivatorNodes();
-        List<List<java.awt.Point>> activatorPoints = rxt.getActivatorPoints();
-        handleBranches(activators, 
-                       activatorPoints, 
+        handleBranches(rxt.getNodeIds(DiagramGeometry.Role.ACTIVATOR), 
+                       rxt.getBranches(DiagramGeometry.Role.ACTIVATOR), 
                        reactionHub, 
                        SpeciesReferenceRole.ACTIVATOR,
                        rg,
                        layoutId);
         // Inhibitors
-        List<Node> inhibitors = rxt.getInhibitorNodes();
-        List<List<java.awt.Point>> inhibitorPoints = rxt.getInhibitorPoints();
-        handleBranches(inhibitors, 
-                       inhibitorPoints, 
+        handleBranches(rxt.getNodeIds(DiagramGeometry.Role.INHIBITOR), 
+                       rxt.getBranches(DiagramGeometry.Role.INHIBITOR), 
                        reactionHub, 
                        SpeciesReferenceRole.INHIBITOR,
                        rg,
                        layoutId);
     }
     
-    private void createBoundingBox(RenderableReaction rxt, ReactionGlyph rg) {
+    private void createBoundingBox(DiagramGeometry.Reaction rxt, ReactionGlyph rg) {
         BoundingBox box = rg.createBoundingBox();
-        java.awt.Point point = rxt.getPosition();
+        java.awt.Point point = rxt.position;
         Point boxPos = new Point(point.getX() - EDGE_TYPE_WIDGET_WIDTH / 2.0d,
                                  point.getY() - EDGE_TYPE_WIDGET_WIDTH / 2.0d);
         box.setPosition(boxPos);
@@ -256,7 +481,7 @@ public class LayoutConverter {
         box.setDimensions(dim);
     }
 
-    private void handleBranches(List<Node> nodes,
+    private void handleBranches(List<Integer> nodes,
                                 List<List<java.awt.Point>> branches,
                                 java.awt.Point hub,
                                 SpeciesReferenceRole role,
@@ -267,7 +492,7 @@ public class LayoutConverter {
         // There are two cases: if there is only one input, no inputPoints is expected
         // Otherwise, the same number of inputs and inputPoints is expected.
         for (int i = 0; i < nodes.size(); i++) {
-            Node node = nodes.get(i);
+            Integer node = nodes.get(i);
             String speciesRefGraphId = layoutId + "_" + role.toString().toLowerCase()+ "_" + i;
             SpeciesReferenceGlyph speciesRefGraph = createSpeciesRefGraph(rg, node, speciesRefGraphId);
             // This is weird with Minerva. It seems that the parser there cannot take these two roles
@@ -303,9 +528,9 @@ public class LayoutConverter {
         return shifted;
     }
 
-    private SpeciesReferenceGlyph createSpeciesRefGraph(ReactionGlyph rg, Node input, String speciesRefGraphId) {
+    private SpeciesReferenceGlyph createSpeciesRefGraph(ReactionGlyph rg, Integer input, String speciesRefGraphId) {
         SpeciesReferenceGlyph speciesRefGraph = rg.createSpeciesReferenceGlyph(speciesRefGraphId);
-        speciesRefGraph.setSpeciesGlyph(LAYOUT_ID_PREFIX + input.getID());
+        speciesRefGraph.setSpeciesGlyph(LAYOUT_ID_PREFIX + input);
         return speciesRefGraph;
     }
     
@@ -327,32 +552,26 @@ public class LayoutConverter {
         return rtn;
     }
     
-    private void handleNodes(Layout layout, RenderablePathway diagram) {
-        List<Renderable> comps = diagram.getComponents();
-        for (Renderable comp : comps) {
-            // This is a species
-            if ((comp instanceof Node) && (!(comp instanceof RenderableCompartment))) {
-                Node node = (Node) comp;
-                if (node.getReactomeId() == null)
-                    continue;
-                String speciesId = SbmlConverter.SPECIES_PREFIX + node.getReactomeId();
-                // Some nodes may not be in the SBML model (e.g. a pathway)
-                if (!layout.getModel().containsSpecies(speciesId))
-                    continue;
-                // A species may be drawn multiple times (e.g. ATP). Therefore,
-                // we cannot use speciesId since layout should not be duplicated.
-                String layoutId = LAYOUT_ID_PREFIX + node.getID();
-                SpeciesGlyph sg = layout.createSpeciesGlyph(layoutId);
-                sg.setSpecies(speciesId);
-                sg.setBoundingBox(createBox(getNodeRect(node)));
-                TextGlyph textGlyph = handleText(layoutId, layout, node, speciesId);
-                // It seems that the text cannot be honored at Minerva. Reset the _displayName
-                Species species = layout.getModel().getSpecies(speciesId);
-//                species.setName(textGlyph.getText());
-                // Need to reset SBO term for minerva
-                String sboTerm = getSBOTerm(comp);
-                species.setSBOTerm(sboTerm);
-            }
+    private void handleNodes(Layout layout, DiagramGeometry diagram, Map<Long, Boolean> setToHasDrug) {
+        // Only species with a DB_ID are kept in the geometry
+        for (DiagramGeometry.Shape node : diagram.getNodes()) {
+            String speciesId = SbmlConverter.SPECIES_PREFIX + node.reactomeId;
+            // Some nodes may not be in the SBML model (e.g. a pathway)
+            if (!layout.getModel().containsSpecies(speciesId))
+                continue;
+            // A species may be drawn multiple times (e.g. ATP). Therefore,
+            // we cannot use speciesId since layout should not be duplicated.
+            String layoutId = LAYOUT_ID_PREFIX + node.id;
+            SpeciesGlyph sg = layout.createSpeciesGlyph(layoutId);
+            sg.setSpecies(speciesId);
+            sg.setBoundingBox(createBox(node.bounds));
+            TextGlyph textGlyph = handleText(layoutId, layout, node, speciesId);
+            // It seems that the text cannot be honored at Minerva. Reset the _displayName
+            Species species = layout.getModel().getSpecies(speciesId);
+//            species.setName(textGlyph.getText());
+            // Need to reset SBO term for minerva
+            String sboTerm = node.sboTerm == null ? getEntitySetSBOTerm(setToHasDrug.get(node.reactomeId)) : node.sboTerm;
+            species.setSBOTerm(sboTerm);
         }
     }
     
@@ -371,43 +590,39 @@ public class LayoutConverter {
     
     private TextGlyph handleText(String layoutId,
                             Layout layout,
-                            Node node,
+                            DiagramGeometry.Shape node,
                             String speciesId) {
         // Text label
         String textId = TEXT_PREFIX + layoutId;
         TextGlyph textGlyph = layout.createTextGlyph(textId);
-        textGlyph.setBoundingBox(createBox(node.getTextBounds()));
+        textGlyph.setBoundingBox(createBox(node.textBounds));
         // Remove compartment information from species
-        String name = node.getDisplayName();
+        String name = node.displayName;
         textGlyph.setText(name);
         textGlyph.setGraphicalObject(layoutId);
         return textGlyph;
     }
     
-    private void handleCompartments(Layout layout, RenderablePathway diagram) {
-        List<Renderable> comps = diagram.getComponents();
+    private void handleCompartments(Layout layout, DiagramGeometry diagram) {
         Set<String> handled = new HashSet<>();
-        for (Renderable comp : comps) {
-            if (comp instanceof RenderableCompartment) {
-                String compartmentId = SbmlConverter.COMPARTMENT_PREFIX + comp.getReactomeId();
-                if (!layout.getModel().containsCompartment(compartmentId))
-                    continue;
-                String id = LAYOUT_ID_PREFIX + comp.getID();
-                CompartmentGlyph cg = layout.createCompartmentGlyph(id);
-                cg.setCompartment(compartmentId);
-                // Get the bounding box
-                Rectangle bounding = comp.getBounds();
-                cg.setBoundingBox(createBox(bounding));
-                handleText(id, layout, (Node)comp, compartmentId);
-                handled.add(compartmentId);
-            }
+        for (DiagramGeometry.Shape comp : diagram.getCompartments()) {
+            String compartmentId = SbmlConverter.COMPARTMENT_PREFIX + comp.reactomeId;
+            if (!layout.getModel().containsCompartment(compartmentId))
+                continue;
+            String id = LAYOUT_ID_PREFIX + comp.id;
+            CompartmentGlyph cg = layout.createCompartmentGlyph(id);
+            cg.setCompartment(compartmentId);
+            // Get the bounding box
+            cg.setBoundingBox(createBox(comp.bounds));
+            handleText(id, layout, comp, compartmentId);
+            handled.add(compartmentId);
         }
         // This is a hack to avoid drawing compartments automatically in Minerva
         ListOf<Compartment> compartments = layout.getModel().getListOfCompartments();
         if (handled.size() == compartments.size())
             return;
         int count = 0;
-        Rectangle diagramBounds = getDiagramBounds(comps);
+        Rectangle diagramBounds = diagram.getBounds();
         // Put them at the bottom
         Rectangle location = new Rectangle();
         location.x = (int)diagramBounds.getCenterX();
@@ -518,21 +733,41 @@ public class LayoutConverter {
             r instanceof RenderableRNADrug || 
             r instanceof RenderableProteinDrug)
             return "SBO:0000298";
-        // Special case
-        if (r instanceof RenderableEntitySet) {
-            try {
-                GKInstance inst = dba.fetchInstance(r.getReactomeId());
-                if (InstanceUtilities.hasDrug(inst))
-                    return "SBO:0000298";
-                // This term is for functional compartment. Following Marek's advice
-                // from Minerva to use this term for the time being.
-                else return "SBO:0000289";
-            }
-            catch(Exception e) {
-                logger.error(e.getMessage(), e);
-            }
-        }
+        // Special case: it depends on the members, see resolveEntitySets()
+        if (r instanceof RenderableEntitySet)
+            return null;
         return "SBO:0000285";
     }
     
+    /**
+     * Checks all entity sets in the diagram for drugs at once, before their species glyphs are created.
+     * @return DB_IDs of the entity sets mapped to true if they contain a drug. Empty if they cannot be checked.
+     */
+    private Map<Long, Boolean> resolveEntitySets(DiagramGeometry diagram) {
+        Set<Long> setIds = diagram.getNodes()
+                                  .stream()
+                                  .filter(node -> node.sboTerm == null)
+                                  .map(node -> node.reactomeId)
+                                  .collect(Collectors.toSet());
+        if (setIds.isEmpty())
+            return Collections.emptyMap();
+        try {
+            return EntitySetDrugIndex.resolve(setIds, dba);
+        }
+        catch(Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+        return Collections.emptyMap();
+    }
+    
+    private String getEntitySetSBOTerm(Boolean hasDrug) {
+        if (hasDrug == null) // Not resolved
+            return "SBO:0000285";
+        if (hasDrug)
+            return "SBO:0000298";
+        // This term is for functional compartment. Following Marek's advice
+        // from Minerva to use this term for the time being.
+        else return "SBO:0000289";
+    }
+    
 }
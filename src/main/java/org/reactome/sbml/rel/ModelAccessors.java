@@ -0,0 +1,121 @@
+package org.reactome.sbml.rel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The constructor and setters of a model class in org.reactome.server.graph.domain.model, looked up only once
+ * and kept as MethodHandles, so that converting a GKInstance does not need any reflective lookup.
+ * Tables are shared by all threads.
+ */
+class ModelAccessors {
+    private static Logger logger = LoggerFactory.getLogger(ModelAccessors.class);
+    // This should be fixed and hard coded since it must be true!
+    private static final String MODEL_PACKAGE_NAME = "org.reactome.server.graph.domain.model";
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(DatabaseObject.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, DatabaseObject.class, Object.class);
+
+    private static final Map<String, ModelAccessors> schemaClassToAccessors = new ConcurrentHashMap<>();
+    private static final ClassValue<ModelAccessors> modelClassToAccessors = new ClassValue<ModelAccessors>() {
+        @Override
+        protected ModelAccessors computeValue(Class<?> type) {
+            return new ModelAccessors(type);
+        }
+    };
+
+    private final Class<?> modelCls;
+    private volatile MethodHandle constructor;
+    // Keyed by attribute name and then by type of the setter parameter, so looking one up allocates nothing
+    private final Map<String, Map<Class<?>, Setter>> setters = new ConcurrentHashMap<>();
+
+    private ModelAccessors(Class<?> modelCls) {
+        this.modelCls = modelCls;
+    }
+
+    /**
+     * @param schemaClassName the name of a class in the Reactome schema, which is the same as the model class
+     */
+    static ModelAccessors forSchemaClass(String schemaClassName) throws ClassNotFoundException {
+        ModelAccessors rtn = schemaClassToAccessors.get(schemaClassName);
+        if (rtn == null) {
+            Class<?> modelCls = Class.forName(MODEL_PACKAGE_NAME + "." + schemaClassName);
+            if (!DatabaseObject.class.isAssignableFrom(modelCls))
+                throw new IllegalArgumentException(schemaClassName + " is not defined.");
+            rtn = modelClassToAccessors.get(modelCls);
+            schemaClassToAccessors.put(schemaClassName, rtn);
+        }
+        return rtn;
+    }
+
+    static ModelAccessors forModelClass(Class<? extends DatabaseObject> modelCls) {
+        return modelClassToAccessors.get(modelCls);
+    }
+
+    DatabaseObject newInstance() throws Exception {
+        MethodHandle constructor = this.constructor;
+        if (constructor == null) {
+            constructor = LOOKUP.unreflectConstructor(modelCls.getDeclaredConstructor()).asType(CONSTRUCTOR_TYPE);
+            this.constructor = constructor;
+        }
+        try {
+            return (DatabaseObject) constructor.invokeExact();
+        }
+        catch (Exception | Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * @return the setter of the attribute taking a value of the given type
+     * @throws NoSuchMethodException if the model class has no such setter
+     */
+    Setter getSetter(String attName, Class<?> type) throws Exception {
+        Map<Class<?>, Setter> byType = setters.get(attName);
+        if (byType == null)
+            byType = setters.computeIfAbsent(attName, k -> new ConcurrentHashMap<>());
+        Setter rtn = byType.get(type);
+        if (rtn == null) {
+            String methodName = "set" + attName.substring(0, 1).toUpperCase() + attName.substring(1);
+            Method method = modelCls.getMethod(methodName, type);
+            if (logger.isDebugEnabled())
+                logger.debug(modelCls.getName() + "." + attName + " -> " + method);
+            // Any returned value is dropped
+            rtn = new Setter(LOOKUP.unreflect(method).asType(SETTER_TYPE));
+            byType.put(type, rtn);
+        }
+        return rtn;
+    }
+
+    static class Setter {
+        private final MethodHandle handle;
+
+        private Setter(MethodHandle handle) {
+            this.handle = handle;
+        }
+
+        void set(DatabaseObject obj, Object value) throws Exception {
+            try {
+                handle.invokeExact(obj, value);
+            }
+            catch (Exception | Error e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+}
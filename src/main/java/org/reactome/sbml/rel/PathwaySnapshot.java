@@ -0,0 +1,158 @@
+package org.reactome.sbml.rel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.gk.model.GKInstance;
+import org.gk.model.InstanceUtilities;
+import org.gk.model.PersistenceAdaptor;
+import org.gk.model.ReactomeJavaConstants;
+
+/**
+ * Everything loaded from the database that is needed to convert a pathway: the contained reactions, their
+ * participants and the diagram (if any). It is resolved once per conversion so that the reactions and the
+ * diagram are not fetched again for each SBML section.
+ */
+public class PathwaySnapshot {
+    // Keep the IN lists in a reasonable size
+    private static final int CHUNK_SIZE = 1000;
+    // Shared by all conversions. It may be null
+    private static EventHierarchyIndex eventHierarchy;
+    private final GKInstance event;
+    private final Set<GKInstance> reactions;
+    private final Set<GKInstance> participants;
+    // Validated geometry of the diagram, only kept when there is something to be laid out
+    private final DiagramGeometry diagram;
+    // DB_IDs of the instances read to convert the event. Null when they are not known (no prefetcher was used)
+    private final Set<Long> dependencies;
+
+    private PathwaySnapshot(GKInstance event,
+                            Set<GKInstance> reactions,
+                            Set<GKInstance> participants,
+                            DiagramGeometry diagram,
+                            Set<Long> dependencies) {
+        this.event = event;
+        this.reactions = Collections.unmodifiableSet(reactions);
+        this.participants = Collections.unmodifiableSet(participants);
+        this.diagram = diagram;
+        this.dependencies = dependencies == null ? null : Collections.unmodifiableSet(dependencies);
+    }
+
+    /**
+     * Load the data needed to convert the passed event.
+     * @param event a Pathway or a ReactionlikeEvent
+     * @param layoutConverter used to fetch and validate the diagram
+     * @param prefetcher used to bulk-load the attributes of the event, reactions and participants. It may be null,
+     *                   but then the dependencies of the snapshot are not known.
+     * @return
+     * @throws Exception
+     */
+    public static PathwaySnapshot load(GKInstance event,
+                                       LayoutConverter layoutConverter,
+                                       AttributePrefetcher prefetcher) throws Exception {
+        DiagramGeometry diagram = layoutConverter.getGeometry(event);
+        // We will convert all contained reactions regardless if they are laid out in the diagram.
+        Set<Long> containedIds = new HashSet<>();
+        Set<GKInstance> reactions;
+        EventHierarchyIndex index = eventHierarchy;
+        if (index != null && index.contains(event.getDBID())) {
+            for (long dbId : index.getContainedEvents(event.getDBID()))
+                containedIds.add(dbId);
+            reactions = fetchReactions(event, index.getContainedReactions(event.getDBID()));
+        }
+        else {
+            Set<GKInstance> contained = InstanceUtilities.getContainedEvents(event);
+            contained.add(event); // In case event itself is a RLE
+            for (GKInstance e : contained)
+                containedIds.add(e.getDBID());
+            reactions = contained.stream()
+                    .filter(e -> e.getSchemClass().isa(ReactomeJavaConstants.ReactionlikeEvent))
+                    .collect(Collectors.toSet());
+        }
+        if (prefetcher != null) {
+            if (!reactions.contains(event))
+                prefetcher.prefetchEvents(Collections.singleton(event));
+            prefetcher.prefetchReactions(reactions);
+        }
+        Set<GKInstance> participants = new HashSet<>();
+        for (GKInstance rxt : reactions)
+            participants.addAll(InstanceUtilities.getReactionParticipants(rxt));
+        Set<Long> dependencies = null;
+        if (prefetcher != null) {
+            prefetcher.prefetchParticipants(participants);
+            // Sub-pathways are not converted but their hasEvent defines what is contained
+            dependencies = new HashSet<>(prefetcher.getVisited());
+            dependencies.addAll(containedIds);
+            dependencies.add(event.getDBID());
+            if (diagram != null && diagram.getDiagramId() != null)
+                dependencies.add(diagram.getDiagramId());
+        }
+        return new PathwaySnapshot(event, reactions, participants, diagram, dependencies);
+    }
+
+    /**
+     * Set the index used to find the reactions contained by the converted events. Without it, the hasEvent
+     * hierarchy under each event is loaded from the database.
+     */
+    public static void setEventHierarchy(EventHierarchyIndex index) {
+        eventHierarchy = index;
+    }
+
+    static EventHierarchyIndex getEventHierarchy() {
+        return eventHierarchy;
+    }
+
+    /**
+     * Fetch the reactions found in the {@link EventHierarchyIndex} with a query per CHUNK_SIZE of them.
+     */
+    private static Set<GKInstance> fetchReactions(GKInstance event, long[] dbIds) throws Exception {
+        Set<GKInstance> rtn = new HashSet<>();
+        if (dbIds.length == 0)
+            return rtn;
+        PersistenceAdaptor dba = event.getDbAdaptor();
+        for (int i = 0; i < dbIds.length; i += CHUNK_SIZE) {
+            List<Long> chunk = new ArrayList<>();
+            for (int j = i; j < Math.min(i + CHUNK_SIZE, dbIds.length); j++)
+                chunk.add(dbIds[j]);
+            Collection<GKInstance> fetched = dba.fetchInstanceByAttribute(ReactomeJavaConstants.ReactionlikeEvent,
+                                                                          ReactomeJavaConstants.DB_ID,
+                                                                          "=",
+                                                                          chunk);
+            rtn.addAll(fetched);
+        }
+        return rtn;
+    }
+
+    public static PathwaySnapshot empty(GKInstance event) {
+        return new PathwaySnapshot(event, new HashSet<>(), new HashSet<>(), null, null);
+    }
+
+    public GKInstance getEvent() {
+        return event;
+    }
+
+    public Set<GKInstance> getReactions() {
+        return reactions;
+    }
+
+    public Set<GKInstance> getParticipants() {
+        return participants;
+    }
+
+    public DiagramGeometry getDiagram() {
+        return diagram;
+    }
+
+    /**
+     * @return the DB_IDs of all instances the conversion of the event depends on, or null if unknown
+     */
+    public Set<Long> getDependencies() {
+        return dependencies;
+    }
+
+}
@@ -6,10 +6,8 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.gk.model.GKInstance;
-import org.gk.model.InstanceUtilities;
 import org.gk.model.ReactomeJavaConstants;
 import org.gk.persistence.MySQLAdaptor;
 import org.gk.render.Renderable;
@@ -24,6 +22,7 @@ import org.reactome.server.tools.sbml.converter.Helper;
 import org.reactome.server.tools.sbml.converter.SbmlConverter;
 import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
 import org.reactome.server.tools.sbml.data.model.ReactionBase;
+import org.reactome.server.tools.sbml.util.PathwayMetrics.Stage;
 import org.sbml.jsbml.SBMLDocument;
 import org.sbml.jsbml.SBMLReader;
 import org.sbml.jsbml.SBMLWriter;
@@ -43,8 +42,10 @@ public class SbmlConverterForRel extends SbmlConverter {
     private InstanceToModelConverter instanceConverter;
     private LayoutConverter layoutConverter;
     private GKInstance topEvent;
-    // Cache the diagram is useDiagram is true and the diagram is in the database for repearting query
-    private RenderablePathway pathwayDiagram;
+    // Reactions, participants and diagram loaded once per conversion
+    private PathwaySnapshot snapshot;
+    // Instances whose attributes were loaded for the conversion
+    private Set<GKInstance> loadedInstances;
 
     public SbmlConverterForRel(String targetId) {
         this(targetId, 0); // Default version is 0, meaning it is not defined.
@@ -60,6 +61,7 @@ public class SbmlConverterForRel extends SbmlConverter {
         setUpSpring();
         instanceConverter = new InstanceToModelConverter();
         layoutConverter = new LayoutConverter();
+        layoutConverter.setMetrics(getMetrics());
         Helper.setUseIdentifierURL(true);
     }
     
@@ -67,6 +69,7 @@ public class SbmlConverterForRel extends SbmlConverter {
         super(targetId, version);
         instanceConverter = new InstanceToModelConverter();
         layoutConverter = new LayoutConverter();
+        layoutConverter.setMetrics(getMetrics());
         Helper.setUseIdentifierURL(true);
     }
     
@@ -79,6 +82,14 @@ public class SbmlConverterForRel extends SbmlConverter {
 //        context.getBean(LazyFetchAspect.class).setEnableAOP(false);
     }
 
+    /**
+     * Share converted DatabaseObjects with other converters (e.g. all pathways in a release export).
+     * @param cache
+     */
+    public void setObjectCache(DatabaseObjectCache cache) {
+        instanceConverter.setCache(cache);
+    }
+
     public void setDBA(MySQLAdaptor dba) {
         this.dba = dba;
         layoutConverter.setDBA(this.dba);
@@ -92,7 +103,7 @@ public class SbmlConverterForRel extends SbmlConverter {
                 instanceConverter.fillInPathwayDetails(instance, pathway);
             }
             topEvent = instance;
-            pathwayDiagram = null; // Just in case
+            snapshot = null; // Just in case
         }
         catch(Exception e) {
             logger.error(e.getMessage(), e);
@@ -133,27 +144,77 @@ public class SbmlConverterForRel extends SbmlConverter {
             throw new IllegalStateException("No MySQLAdaptor specified.");
         if (targetStId == null)
             throw new IllegalStateException("No target id specified.");
-        instanceConverter.reset();
         logger.info("Starting converting " + targetStId + "...");
         SBMLDocument doc =  super.convert();
         logger.info("Finished converting " + targetStId + ".");
-        if (pathwayDiagram != null) { // This should do for using pathway diagram only
+        if (snapshot != null && snapshot.getDiagram() != null) { // This should do for using pathway diagram only
             layoutConverter.addLayout(doc.getModel(), 
                                       topEvent,
-                                      pathwayDiagram);
+                                      snapshot.getDiagram());
         }
         return doc;
     }
 
+    /**
+     * Fetch the reactions, participants and diagram used by the following steps only once, bulk-loading
+     * the attributes needed for the conversion at the same time.
+     */
+    @Override
+    protected void loadData() {
+        if (snapshot != null)
+            return; // Already loaded by isStreamable()
+        try {
+            AttributePrefetcher prefetcher = new AttributePrefetcher(dba);
+            snapshot = PathwaySnapshot.load(topEvent, layoutConverter, prefetcher);
+            loadedInstances = prefetcher.getInstances();
+            logger.debug("Prefetched attributes for " + targetStId + " with " + prefetcher.getQueries() + " queries.");
+        }
+        catch(Exception e) {
+            logger.error(e.getMessage(), e);
+            snapshot = PathwaySnapshot.empty(topEvent);
+        }
+    }
+
+    /**
+     * @return the DB_IDs of the instances the converted pathway depends on (see {@link ExportManifest}) or null
+     * if the pathway has not been converted or its data could not be loaded
+     */
+    public Set<Long> getDependencies() {
+        return snapshot == null ? null : snapshot.getDependencies();
+    }
+
+    /**
+     * @return the instances loaded from the database to convert the pathway, so the MySQLAdaptor cache can be
+     * cleared once it holds too many of them (see {@link InstanceCachePolicy})
+     */
+    public Set<GKInstance> getLoadedInstances() {
+        Set<GKInstance> rtn = new HashSet<>();
+        if (topEvent != null)
+            rtn.add(topEvent);
+        if (loadedInstances != null)
+            rtn.addAll(loadedInstances);
+        if (snapshot != null) {
+            rtn.addAll(snapshot.getReactions());
+            rtn.addAll(snapshot.getParticipants());
+        }
+        return rtn;
+    }
+
+    /**
+     * The layout is added to the SBMLDocument after converting so pathways with a diagram cannot be streamed.
+     */
+    @Override
+    protected boolean isStreamable() {
+        loadData();
+        return snapshot.getDiagram() == null;
+    }
+
     @Override
     protected Collection<ParticipantDetails> getParticipantDetails() {
         List<ParticipantDetails> rtn = new ArrayList<>();
+        getMetrics().start(Stage.CONVERT);
         try {
-            Set<GKInstance> reactions = getReactions();
-            Set<GKInstance> pes = new HashSet<>();
-            for (GKInstance rxt : reactions)
-                pes.addAll(InstanceUtilities.getReactionParticipants(rxt));
-            for (GKInstance pe : pes) {
+            for (GKInstance pe : snapshot.getParticipants()) {
                 // Need the attributes for PhysicalEntity
                 DatabaseObject databaseObj = instanceConverter.convert(pe);
                 if (!(databaseObj instanceof PhysicalEntity)) {
@@ -169,21 +230,10 @@ public class SbmlConverterForRel extends SbmlConverter {
         catch(Exception e) {
             logger.error(e.getMessage(), e);
         }
-        return rtn;
-    }
-    
-    private Set<GKInstance> getReactions() throws Exception {
-        RenderablePathway diagram = layoutConverter.getDiagram(topEvent);
-        if (diagram != null && layoutConverter.hasReactions(diagram)) {
-            this.pathwayDiagram = diagram;
-            // We will convert all contained reactions regardless if they are laid out in the diagram.
-//            return getReactionsInDiagram(diagram);
+        finally {
+            getMetrics().stop();
         }
-        Set<GKInstance> contained = InstanceUtilities.getContainedEvents(topEvent);
-        contained.add(topEvent); // In case event itself is a RLE
-        return contained.stream()
-                .filter(e -> e.getSchemClass().isa(ReactomeJavaConstants.ReactionlikeEvent))
-                .collect(Collectors.toSet());
+        return rtn;
     }
     
     private Set<GKInstance> getReactionsInDiagram(RenderablePathway pathwayDiagram) throws Exception {
@@ -209,9 +259,9 @@ public class SbmlConverterForRel extends SbmlConverter {
     @Override
     protected Collection<ReactionBase> getReactionList() {
         List<ReactionBase> rtn = new ArrayList<>();
+        getMetrics().start(Stage.CONVERT);
         try {
-            Set<GKInstance> reactions = getReactions();
-            for (GKInstance reaction : reactions) {
+            for (GKInstance reaction : snapshot.getReactions()) {
                 DatabaseObject dob = instanceConverter.convert(reaction);
                 if (!(dob instanceof ReactionLikeEvent))
                     throw new IllegalStateException(dob + " cannot be converted into a ReactionlikeEvent.");
@@ -225,6 +275,9 @@ public class SbmlConverterForRel extends SbmlConverter {
         catch(Exception e) {
             logger.error(e.getMessage(), e);
         }
+        finally {
+            getMetrics().stop();
+        }
         return rtn;
     }
 
@@ -3,7 +3,14 @@ package org.reactome.server.tools.sbml;
 import com.martiansoftware.jsap.*;
 import org.apache.commons.lang3.ArrayUtils;
 import org.gk.persistence.MySQLAdaptor;
-import org.reactome.sbml.rel.SbmlConverterForRel;
+import org.reactome.sbml.rel.DatabaseObjectCache;
+import org.reactome.sbml.rel.DiagramCache;
+import org.reactome.sbml.rel.EntitySetDrugIndex;
+import org.reactome.sbml.rel.EventHierarchyIndex;
+import org.reactome.sbml.rel.ExportManifest;
+import org.reactome.sbml.rel.InstanceCachePolicy;
+import org.reactome.sbml.rel.LayoutConverter;
+import org.reactome.sbml.rel.PathwaySnapshot;
 import org.reactome.server.graph.domain.model.DBInfo;
 import org.reactome.server.graph.domain.model.Event;
 import org.reactome.server.graph.domain.model.Pathway;
@@ -12,15 +19,28 @@ import org.reactome.server.graph.service.*;
 import org.reactome.server.graph.service.util.DatabaseObjectUtils;
 import org.reactome.server.graph.utils.ReactomeGraphCore;
 import org.reactome.server.tools.sbml.config.GraphNeo4jConfig;
-import org.reactome.server.tools.sbml.util.ProgressBar;
+import org.reactome.server.tools.sbml.converter.HistoryFactory;
+import org.reactome.server.tools.sbml.converter.NotesSanitizer;
+import org.reactome.server.tools.sbml.converter.UrlResolver;
+import org.reactome.server.tools.sbml.util.ExportEngine;
+import org.reactome.server.tools.sbml.util.ExportJournal;
+import org.reactome.server.tools.sbml.util.ExportReport;
+import org.reactome.server.tools.sbml.util.ExportStatus;
+import org.reactome.server.tools.sbml.util.HeapMonitor;
+import org.reactome.server.tools.sbml.util.SbmlOutput;
+import org.reactome.server.tools.sbml.util.StatusServer;
 import org.reactome.server.tools.sbml.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 /**
  * Converts {@link org.reactome.server.graph.domain.model.Event} class instances to SBML file(s).
@@ -36,6 +56,37 @@ public class Main {
 
     private static MySQLAdaptor mysqlDba;
 
+    // Every export worker opens its own connection to the relational database
+    private static Callable<MySQLAdaptor> mysqlConnector;
+
+    private static Integer threads = 1;
+
+    // Write the SBML while converting instead of building the whole document first
+    private static Boolean stream = false;
+
+    private static SbmlOutput.Format format = SbmlOutput.Format.SBML;
+
+    // Dependencies of the exported pathways, only used for incremental exports
+    private static ExportManifest manifest;
+
+    // Converted DatabaseObjects are shared by all pathways (and threads) during the whole export
+    private static DatabaseObjectCache objectCache;
+    // Validated diagram layouts kept across exports (optional)
+    private static DiagramCache diagramCache;
+
+    // Time per stage, element counts and bytes of every converted pathway
+    private static ExportReport report = new ExportReport();
+
+    // Live status of the export (console line in verbose mode, JMX and optionally http)
+    private static ExportStatus status = new ExportStatus();
+
+    // Records the progress so an interrupted export can be resumed
+    private static ExportJournal journal;
+
+    // Collections seen when the graph cache was last cleared and how many times it has been
+    private static long graphCacheClearedAt = -1L;
+    private static int graphCacheClears = 0;
+
     public static void main(String[] args) throws Exception {
 
         SimpleJSAP jsap = new SimpleJSAP(Main.class.getName(), "A tool for generating SBML files",
@@ -50,6 +101,19 @@ public class Main {
                         new FlaggedOption("mysql_password", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'w', "mysql_password", "The mysql password"),
                         new FlaggedOption("output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'o', "output", "The output directory"),
                         new FlaggedOption("target", JSAP.STRING_PARSER, "ALL", JSAP.NOT_REQUIRED, 't', "target", "Target events to convert. Use either (1) comma separated event identifiers, (2) a given species (e.g. 'Homo sapiens') or  (3)'all' to export every pathway").setList(true).setListSeparator(','),
+                        new FlaggedOption("threads", JSAP.INTEGER_PARSER, "1", JSAP.NOT_REQUIRED, 'c', "threads", "The number of pathways converted in parallel for species and 'all' targets. Each thread uses its own mysql connection"),
+                        new FlaggedOption("cache_size", JSAP.INTEGER_PARSER, String.valueOf(DatabaseObjectCache.DEFAULT_MAX_SIZE), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "cache_size", "The maximum number of converted objects kept in memory to be re-used across pathways"),
+                        new FlaggedOption("format", JSAP.STRING_PARSER, SbmlOutput.Format.SBML.getName(), JSAP.NOT_REQUIRED, 'f', "format", "The output format: 'sbml' or 'gzip' (one file per pathway), 'zip' or 'tgz' (one archive per species)"),
+                        new Switch("stream", JSAP.NO_SHORTFLAG, "stream", "Writes the SBML elements of each pathway as soon as they are created instead of building the whole SBML document first. The data of the pathway is still loaded in full and pathways with a layout are always written from the whole document"),
+                        new FlaggedOption("layout_validation", JSAP.STRING_PARSER, "raster", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "layout_validation", "How diagrams are validated before adding their layout: 'raster' (rendering them to images), 'geometry' (without rendering them) or 'parity' (both, logging any difference)"),
+                        new FlaggedOption("diagram_cache", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "diagram_cache", "A directory where the validated diagram layouts are kept, so unchanged diagrams are neither fetched nor validated again by later exports"),
+                        new FlaggedOption("report", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "report", "A directory where the time spent in each stage, the element counts and the bytes written for every pathway are reported at the end (" + ExportReport.CSV_FILE + " and " + ExportReport.JSON_FILE + ")"),
+                        new FlaggedOption("slowest", JSAP.INTEGER_PARSER, "10", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "slowest", "The number of slowest pathways listed in the report"),
+                        new FlaggedOption("status_port", JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "status_port", "A local port where the live status of the export is served (as text in '/' and as JSON in '/status.json'). It is always available through JMX as " + ExportStatus.OBJECT_NAME),
+                        new FlaggedOption("instance_cache_size", JSAP.INTEGER_PARSER, String.valueOf(InstanceCachePolicy.DEFAULT_MAX_INSTANCES), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "instance_cache_size", "The maximum number of database instances kept in the cache of each thread. Once exceeded, the whole cache is cleared before the next pathway"),
+                        new FlaggedOption("heap_threshold", JSAP.DOUBLE_PARSER, String.valueOf(HeapMonitor.DEFAULT_THRESHOLD), JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "heap_threshold", "The fraction of the heap (0 to 1) above which the caches are released"),
+                        new Switch("resume", JSAP.NO_SHORTFLAG, "resume", "Continues an interrupted export to the same output directory, skipping the pathways (and archives) recorded as written in its " + ExportJournal.FILE_NAME),
+                        new Switch("incremental", JSAP.NO_SHORTFLAG, "incremental", "Only converts the pathways whose instances changed since the previous export to the same output directory. Not available for archive formats"),
                         new QualifiedSwitch("verbose", JSAP.BOOLEAN_PARSER, null, JSAP.NOT_REQUIRED, 'v', "verbose", "Requests verbose output.")
                 }
         );
@@ -58,16 +122,56 @@ public class Main {
         if (jsap.messagePrinted()) System.exit(1);
 
         verbose = config.getBoolean("verbose");
+        threads = config.getInt("threads");
+        stream = config.getBoolean("stream");
+        format = SbmlOutput.Format.parse(config.getString("format"));
+        objectCache = new DatabaseObjectCache(config.getInt("cache_size"));
+        InstanceCachePolicy.setMaxInstances(config.getInt("instance_cache_size"));
+        HeapMonitor.setThreshold(config.getDouble("heap_threshold"));
+        LayoutConverter.setValidationMode(LayoutConverter.ValidationMode.parse(config.getString("layout_validation")));
+        if (config.contains("diagram_cache")) {
+            diagramCache = new DiagramCache(new File(config.getString("diagram_cache")));
+            LayoutConverter.setDiagramCache(diagramCache);
+        }
 
         String output = config.getString("output");
         Utils.outputCheck(output);
 
+        status.addCache("objects", objectCache::toString);
+        status.addCache("notes", NotesSanitizer::getStatistics);
+        status.addCache("urls", UrlResolver::getStatistics);
+        status.addCache("history", HistoryFactory::getStatistics);
+        status.addCache("drugs", EntitySetDrugIndex::getStatistics);
+        status.addCache("instances", InstanceCachePolicy::getStatistics);
+        if (diagramCache != null) status.addCache("diagrams", diagramCache::toString);
+        status.register();
+
+        if (config.getBoolean("incremental") && format.isArchive()) {
+            error("Incremental exports are only available for the 'sbml' and 'gzip' formats");
+            System.exit(1);
+        }
+
+        if (verbose) status.startConsole();
+        StatusServer statusServer = null;
+        try {
+            if (config.contains("status_port")) statusServer = new StatusServer(status, config.getInt("status_port"));
+            export(config, output);
+        } finally {
+            status.stopConsole();
+            if (statusServer != null) statusServer.close();
+        }
+    }
+
+    private static void export(JSAPResult config, String output) throws Exception {
+        journal = config.getBoolean("resume") ? ExportJournal.resume(new File(output)) : ExportJournal.create(new File(output));
+
         //Initialising ReactomeCore Neo4j configuration
-        mysqlDba = new MySQLAdaptor(config.getString("mysql_host"),
+        mysqlConnector = () -> new MySQLAdaptor(config.getString("mysql_host"),
                 config.getString("mysql_db"),
                 config.getString("mysql_user"),
                 config.getString("mysql_password"),
                 Integer.parseInt(config.getString("mysql_port"))); // Cannot auto-parse? This is weird.
+        mysqlDba = mysqlConnector.call();
 
         ReactomeGraphCore.initialise(config.getString("host"), config.getString("user"), config.getString("password"), GraphNeo4jConfig.class);
 
@@ -76,6 +180,8 @@ public class Main {
         String[] target = config.getStringArray("target");
 
         DBInfo dbInfo = ReactomeGraphCore.getService(GeneralService.class).getDBInfo();
+        // Files written for another version are converted again
+        if (config.getBoolean("incremental")) manifest = ExportManifest.load(new File(output), dbInfo.getVersion());
 
         long start = System.currentTimeMillis();
         if (target.length > 1) {
@@ -98,26 +204,67 @@ public class Main {
                 }
             }
         }
+        journal.close();
+        if (journal.getSkipped() > 0) info(String.format("%d pathways had already been written by the resumed export", journal.getSkipped()));
+        if (manifest != null) {
+            try {
+                int pruned = manifest.prune(mysqlDba);
+                if (pruned > 0) info(String.format("%d pathways that no longer exist have been removed from the manifest", pruned));
+            } catch (SQLException e) {
+                logger.warn("Cannot remove the pathways that no longer exist from the manifest", e);
+            }
+            manifest.save();
+            info(String.format("%d pathways were up to date and have not been converted again", manifest.getKept()));
+        }
+        logger.info(objectCache.toString());
+        logger.info(NotesSanitizer.getStatistics());
+        logger.info(UrlResolver.getStatistics());
+        logger.info(HistoryFactory.getStatistics());
+        logger.info(EntitySetDrugIndex.getStatistics());
+        logger.info(InstanceCachePolicy.getStatistics());
+        logger.info(String.format("Graph cache cleared %d times because of the heap", graphCacheClears));
+        if (diagramCache != null) logger.info(diagramCache.toString());
+        logger.info(report.getSummary(config.getInt("slowest")));
+        if (config.contains("report")) {
+            File reportFolder = new File(config.getString("report"));
+            try {
+                report.write(reportFolder, config.getInt("slowest"));
+                info(String.format("Export report written to %s", reportFolder));
+            } catch (IOException e) {
+                logger.error("Cannot write the export report to " + reportFolder, e);
+            }
+        }
         info(String.format("Finished in %s", Utils.getTimeFormatted(System.currentTimeMillis() - start)));
     }
 
     private static void convertPathways(String[] identifiers, Integer version, String output) {
         info(String.format("Converting %d event%s", identifiers.length, identifiers.length > 1 ? "s" : ""));
         DatabaseObjectService dbs = ReactomeGraphCore.getService(DatabaseObjectService.class);
-        for (String identifier : identifiers) {
-            try {
-                Event p = dbs.findById(identifier);
-                info(String.format("\t>%s: %s", p.getStId(), p.getDisplayName()));
-                SbmlConverterForRel c = new SbmlConverterForRel(p.getStId(),
-                        version,
-                        ReactomeGraphCore.getService(AdvancedDatabaseObjectService.class));
-                c.setDBA(mysqlDba);
-                c.convert();
-                c.writeToFile(output);
-            } catch (ClassCastException e) {
-                error(identifier + " cannot be converted. Reason: This identifier does not belong to a Pathway");
+        status.begin("pathways", identifiers.length);
+        boolean completed = false;
+        PathwayExportWorker worker = new PathwayExportWorker(mysqlDba, objectCache, version, stream, manifest, report, journal);
+        try (SbmlOutput sbmlOutput = SbmlOutput.open(format, output, "pathways")) {
+            journal.begin("pathways", format.isArchive());
+            for (String identifier : identifiers) {
+                status.started(identifier);
+                boolean success = false;
+                try {
+                    Event p = dbs.findById(identifier);
+                    info(String.format("\t>%s: %s", p.getStId(), p.getDisplayName()));
+                    success = worker.export(p.getStId(), sbmlOutput);
+                } catch (ClassCastException e) {
+                    error(identifier + " cannot be converted. Reason: This identifier does not belong to a Pathway");
+                } finally {
+                    status.finished(identifier, success);
+                }
             }
+            completed = true;
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
         }
+        status.end();
+        if (completed) completeJournalGroup();
+        saveManifest();
     }
 
     private static void convertSpecies(Species species, Integer version, String output) {
@@ -127,35 +274,84 @@ public class Main {
     }
 
     private static void convertSpeciesList(List<Species> speciesList, Integer version, String output) {
-        info(String.format("Converting %d species", speciesList.size()));
+        info(String.format("Converting %d species using %d thread%s", speciesList.size(), threads, threads > 1 ? "s" : ""));
+        // Thousands of pathways ask for their contained reactions, so the whole hierarchy is loaded at once
+        try {
+            EventHierarchyIndex eventHierarchy = EventHierarchyIndex.load(mysqlDba);
+            PathwaySnapshot.setEventHierarchy(eventHierarchy);
+            logger.info(eventHierarchy.toString());
+        } catch (SQLException e) {
+            logger.warn("Cannot load the event hierarchy. The reactions of each pathway are loaded separately", e);
+        }
         SchemaService schemaService = ReactomeGraphCore.getService(SchemaService.class);
-        for (Species species : speciesList) {
-            Collection<Pathway> pathways = schemaService.getByClass(Pathway.class, species);
-            int total = pathways.size();
-            AtomicInteger i = new AtomicInteger(0);
-            ProgressBar progressBar = new ProgressBar(species.getDisplayName(), total, verbose);
-            progressBar.start();
-            try {
-                // Check from parallel to avoid any thread issues for the time being
-//                pathways.stream().parallel().forEach(pathway -> {
-                pathways.stream().forEach(pathway -> {
-                    progressBar.update(pathway.getStId(), i.get());
-                    SbmlConverterForRel c = new SbmlConverterForRel(pathway.getStId(),
-                                                                    version,
-                                                                    ReactomeGraphCore.getService(AdvancedDatabaseObjectService.class));
-                    c.setDBA(mysqlDba);
-                    c.convert();
-                    c.writeToFile(output);
-                    if (i.incrementAndGet() % 10 == 0) ReactomeGraphCore.getService(GeneralService.class).clearCache();
-                });
-                progressBar.done();
-            } catch (Exception e) {
-                logger.error(e.getMessage(), e);
-                progressBar.interrupt();
+        // The workers (and their connections) are created once and used for all the species
+        try (ExportEngine engine = new ExportEngine(threads, () -> new PathwayExportWorker(mysqlConnector.call(), objectCache, version, stream, manifest, report, journal), status)) {
+            for (Species species : speciesList) {
+                convertSpecies(engine, species, output, schemaService);
             }
         }
     }
 
+    private static void convertSpecies(ExportEngine engine, Species species, String output, SchemaService schemaService) {
+        // Archives are written at once, so they are either complete or written again
+        if (format.isArchive() && journal.isCompleted(species.getDisplayName()) && SbmlOutput.getArchive(format, output, species.getDisplayName()).isFile()) {
+            info(String.format("%s had already been written by the resumed export", species.getDisplayName()));
+            return;
+        }
+        Collection<Pathway> pathways = schemaService.getByClass(Pathway.class, species);
+        List<String> stIds = pathways.stream().map(Pathway::getStId).collect(Collectors.toList());
+        status.begin(species.getDisplayName(), stIds.size());
+        // Archive formats get one file per species shared by all the workers
+        boolean completed = false;
+        try (SbmlOutput sbmlOutput = SbmlOutput.open(format, output, species.getDisplayName())) {
+            journal.begin(species.getDisplayName(), format.isArchive());
+            ExportEngine.Result result = engine.export(stIds, sbmlOutput, (stId, done) -> releaseGraphCache());
+            // Left open otherwise, so a resumed export writes the species again
+            completed = result.isComplete();
+            if (!completed) logger.error(String.format("%s is incomplete: %s", species.getDisplayName(), result));
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+        status.end();
+        if (completed) completeJournalGroup();
+        saveManifest();
+    }
+
+    /**
+     * Records the current group as completed once its output has been closed
+     */
+    private static void completeJournalGroup() {
+        try {
+            journal.complete();
+        } catch (IOException e) {
+            logger.error("Cannot update the export journal", e);
+        }
+    }
+
+    /**
+     * Saves the manifest of incremental exports after every species, so an interrupted export keeps it up to date
+     */
+    private static void saveManifest() {
+        if (manifest == null) return;
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            logger.error("Cannot save the manifest", e);
+        }
+    }
+
+    /**
+     * Clears the graph cache when the heap is above the threshold, at most once per garbage collection since the
+     * heap is only measured after them
+     */
+    private static synchronized void releaseGraphCache() {
+        long collections = HeapMonitor.getCollections();
+        if (collections == graphCacheClearedAt || !HeapMonitor.isAboveThreshold()) return;
+        graphCacheClearedAt = collections;
+        graphCacheClears++;
+        ReactomeGraphCore.getService(GeneralService.class).clearCache();
+    }
+
     private static void info(String msg){
         logger.info(msg);
         if (verbose) System.out.println(msg);
@@ -0,0 +1,97 @@
+package org.reactome.server.tools.sbml;
+
+import org.gk.persistence.MySQLAdaptor;
+import org.reactome.sbml.rel.DatabaseObjectCache;
+import org.reactome.sbml.rel.ExportManifest;
+import org.reactome.sbml.rel.InstanceCachePolicy;
+import org.reactome.sbml.rel.SbmlConverterForRel;
+import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
+import org.reactome.server.graph.utils.ReactomeGraphCore;
+import org.reactome.server.tools.sbml.util.ExportEngine;
+import org.reactome.server.tools.sbml.util.ExportJournal;
+import org.reactome.server.tools.sbml.util.ExportReport;
+import org.reactome.server.tools.sbml.util.SbmlOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Converts pathways from the relational database using its own {@link MySQLAdaptor}. Each {@link ExportEngine}
+ * thread holds one instance, so neither the connection nor the conversion state is shared between threads.
+ */
+class PathwayExportWorker implements ExportEngine.Worker {
+
+    private static Logger logger = LoggerFactory.getLogger("sbml-exporter");
+
+    private final MySQLAdaptor dba;
+    private final DatabaseObjectCache objectCache;
+    private final Integer version;
+    private final boolean stream;
+    // Only set for incremental exports
+    private final ExportManifest manifest;
+    // Collects the metrics of every converted pathway
+    private final ExportReport report;
+    // Records the pathways written so an interrupted export can be resumed
+    private final ExportJournal journal;
+    // Bounds the instance cache of dba
+    private final InstanceCachePolicy cachePolicy;
+
+    PathwayExportWorker(MySQLAdaptor dba, DatabaseObjectCache objectCache, Integer version, boolean stream, ExportManifest manifest, ExportReport report, ExportJournal journal) {
+        this.dba = dba;
+        this.objectCache = objectCache;
+        this.version = version;
+        this.stream = stream;
+        this.manifest = manifest;
+        this.report = report;
+        this.journal = journal;
+        this.cachePolicy = new InstanceCachePolicy(dba);
+    }
+
+    /**
+     * @return false if the pathway could not be written. Pathways already written (by the resumed export or by the
+     * previous one for incremental exports) are not written again but count as written.
+     */
+    @Override
+    public boolean export(String stId, SbmlOutput output) {
+        if (journal.isDone(stId, output)) return true; // Written by the export being resumed
+        try {
+            if (manifest != null && output.exists(stId) && manifest.isUpToDate(stId, dba)) return true;
+        } catch (Exception e) {
+            logger.warn(String.format("Cannot check whether '%s' has changed. It will be converted", stId), e);
+        }
+        SbmlConverterForRel c = new SbmlConverterForRel(stId,
+                                                        version,
+                                                        ReactomeGraphCore.getService(AdvancedDatabaseObjectService.class));
+        c.setObjectCache(objectCache);
+        c.setDBA(dba);
+        boolean written = c.write(output, stream);
+        report.add(c.getMetrics());
+        cachePolicy.release(c.getLoadedInstances(), c.getDependencies());
+        if (!written) return false;
+        try {
+            journal.record(stId, c.getMetrics().getChecksum(), c.getMetrics().getBytes());
+        } catch (IOException e) {
+            logger.warn(String.format("Cannot record '%s' in the export journal", stId), e);
+        }
+        if (manifest == null) return true;
+        Set<Long> dependencies = c.getDependencies();
+        if (dependencies == null) return true; // Not recorded so it is converted again next time
+        try {
+            manifest.update(stId, dependencies, dba);
+        } catch (Exception e) {
+            logger.warn(String.format("Cannot record the dependencies of '%s'", stId), e);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        try {
+            dba.cleanUp();
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+}
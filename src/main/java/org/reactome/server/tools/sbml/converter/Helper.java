@@ -2,33 +2,19 @@ package org.reactome.server.tools.sbml.converter;
 
 import static org.sbml.jsbml.JSBML.getJSBMLDottedVersion;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.StringJoiner;
+import java.util.Objects;
 
-import javax.xml.stream.XMLStreamException;
-
-import org.apache.commons.collections4.map.HashedMap;
 import org.reactome.server.graph.domain.model.AbstractModifiedResidue;
-import org.reactome.server.graph.domain.model.Affiliation;
 import org.reactome.server.graph.domain.model.Complex;
 import org.reactome.server.graph.domain.model.EntitySet;
 import org.reactome.server.graph.domain.model.EntityWithAccessionedSequence;
 import org.reactome.server.graph.domain.model.Event;
 import org.reactome.server.graph.domain.model.GO_BiologicalProcess;
-import org.reactome.server.graph.domain.model.InstanceEdit;
 import org.reactome.server.graph.domain.model.LiteratureReference;
-import org.reactome.server.graph.domain.model.Person;
 import org.reactome.server.graph.domain.model.PhysicalEntity;
 import org.reactome.server.graph.domain.model.Polymer;
 import org.reactome.server.graph.domain.model.Publication;
@@ -38,12 +24,14 @@ import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
 import org.reactome.server.tools.sbml.data.model.ReactionBase;
 import org.sbml.jsbml.Annotation;
 import org.sbml.jsbml.CVTerm;
-import org.sbml.jsbml.Creator;
 import org.sbml.jsbml.History;
 import org.sbml.jsbml.Reaction;
 import org.sbml.jsbml.SBase;
 import org.sbml.jsbml.Species;
+import org.sbml.jsbml.xml.XMLAttributes;
+import org.sbml.jsbml.xml.XMLNamespaces;
 import org.sbml.jsbml.xml.XMLNode;
+import org.sbml.jsbml.xml.XMLTriple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,10 +47,12 @@ public class Helper {
     private static Logger logger = LoggerFactory.getLogger("sbml-exporter");
 
     private static final String REACTOME_URI = "https://reactome.org/content/detail/";
+    private static final String XHTML_NS = "http://www.w3.org/1999/xhtml";
+
+    private static volatile Provenance provenance;
     
-    // To control is we should use identifier URLs
-    private static boolean useIdentifierURL = false;
-    private static Map<String, String> url2identifier;
+    // To control is we should use identifier URLs. Read by all the export threads
+    private static volatile boolean useIdentifierURL = false;
     
     public static void setUseIdentifierURL(boolean use) {
         useIdentifierURL = use;
@@ -73,14 +63,7 @@ public class Helper {
 
         Helper.addNotes(s, participant.getExplanation());
 
-        List<String> summations = new ArrayList<>();
-        for (Summation summation : pe.getSummation()) {
-            String text = summation.getText();
-            if (text != null) {
-                summations.add(text);
-            }
-        }
-        Helper.addNotes(s, summations);
+        Helper.addSummations(s, pe.getSummation());
 
         List<String> litrefs = new ArrayList<>();
         for (Publication l : participant.getPhysicalEntity().getLiteratureReference()) {
@@ -140,40 +123,12 @@ public class Helper {
         //When converting an orphan reaction, this event is null and no annotations have to be added
         if(event == null) return;
 
-        History history = new History();
-        InstanceEdit created = event.getCreated();
-        if (created != null) {
-            for (Person c : created.getAuthor()) Helper.addCreator(history, c);
-            history.setCreatedDate(Helper.formatDate(created.getDateTime()));
-        }
-
-        InstanceEdit modified = event.getModified();
-        if (modified != null) {
-            for (Person m : modified.getAuthor()) Helper.addCreator(history, m);
-            history.addModifiedDate(Helper.formatDate(modified.getDateTime()));
-        }
-
-        for (InstanceEdit authored : event.getAuthored()) {
-            for (Person a : authored.getAuthor()) Helper.addCreator(history, a);
-            history.addModifiedDate(Helper.formatDate(authored.getDateTime()));
-        }
-
-        for (InstanceEdit revised : event.getRevised()) {
-            for (Person r : revised.getAuthor()) Helper.addCreator(history, r);
-            history.addModifiedDate(Helper.formatDate(revised.getDateTime()));
-        }
+        History history = HistoryFactory.create(event);
 
         Annotation annotation = new Annotation();
         annotation.setHistory(history);
 
-        List<String> summations = new ArrayList<>();
-        for (Summation summation : event.getSummation()) {
-            String text = summation.getText();
-            if (text != null) {
-                summations.add(text);
-            }
-        }
-        Helper.addNotes(sBase, summations);
+        Helper.addSummations(sBase, event.getSummation());
 
         List<String> uris = new ArrayList<>();
         uris.add(REACTOME_URI + event.getStId());
@@ -215,94 +170,93 @@ public class Helper {
         }
     }
     
-    private static String convertUrl(String url) {
-        if (!useIdentifierURL)
-            return url;
-        if (url2identifier == null) {
-            // Need to load
-            url2identifier = loadUrl2identigier();
-        }
-        for (String key : url2identifier.keySet()) {
-            if (url.startsWith(key)) {
-                // Get the id from url
-                int index1 = key.length();
-                int index2 = url.indexOf('&', index1);
-                if (index2 < 0)
-                    index2 = url.length();
-                return url2identifier.get(key) + url.substring(index1, index2);
+    static String convertUrl(String url) {
+        return useIdentifierURL ? UrlResolver.toIdentifierUrl(url) : url;
+    }
+
+    static void addNotes(SBase sBase, List<String> content) {
+        if (content != null) addNotes(sBase, content.toArray(new String[0]));
+    }
+
+    static void addNotes(SBase sBase, String... content) {
+        if (content != null && content.length > 0) {
+            List<String> sanitized = new ArrayList<>(content.length);
+            for (String s : content) {
+                if (s != null) sanitized.add(removeTags(s));
             }
+            addSanitizedNotes(sBase, sanitized);
         }
-        return url;
     }
-    
-    private static Map<String, String> loadUrl2identigier() {
-        Map<String, String> rtn = new HashedMap<>();
-        try {
-            InputStream is = Helper.class.getClassLoader().getResourceAsStream("url2identifier.txt");
-            InputStreamReader isr = new InputStreamReader(is);
-            BufferedReader br = new BufferedReader(isr);
-            String line = br.readLine();
-            while ((line = br.readLine()) != null) {
-                if (line.startsWith("#"))
-                    continue;
-                String[] tokens = line.split("\t");
-                rtn.put(tokens[0], tokens[1]);
+
+    /**
+     * Adds the texts of the summations, re-using the ones already sanitised in other pathways
+     */
+    private static void addSummations(SBase sBase, List<Summation> summations) {
+        List<String> texts = new ArrayList<>();
+        for (Summation summation : summations) {
+            String text = summation.getText();
+            if (text != null) {
+                texts.add(NotesSanitizer.sanitize(summation.getDbId(), text));
             }
-            br.close();
-            isr.close();
-            is.close();
-            logger.info("Loaded url2identiier.txt: " + rtn.size());
         }
-        catch(IOException e) {
-            logger.error(e.getMessage(), e);
-        }
-        return rtn;
+        if (!texts.isEmpty()) addSanitizedNotes(sBase, texts);
     }
 
-    private static void addNotes(SBase sBase, List<String> content) {
-        if (content != null) addNotes(sBase, content.toArray(new String[0]));
+    /**
+     * Builds the notes node directly instead of writing and parsing it back, so no lock is needed and pathways
+     * can be converted in parallel.
+     *
+     * @param content texts that have already been passed through {@link #removeTags(String)}
+     */
+    private static void addSanitizedNotes(SBase sBase, List<String> content) {
+        // Line feeds are the only line separators left after parsing, so they are used on every platform
+        String text = String.join("\n", content);
+        if (!isXmlText(text)) {
+            // The notes could not be read back, so they are left out as they were when parsed
+            logger.error(String.format("An error occurred while generating notes for '%s'", sBase.getId()));
+            return;
+        }
+        XMLNode p = createXhtmlParagraph();
+        if (!text.isEmpty()) p.addChild(new XMLNode(text));
+        XMLNode notes = new XMLNode(new XMLTriple("notes"), new XMLAttributes());
+        notes.addChild(p);
+        sBase.appendNotes(notes);
     }
 
-    static synchronized void addNotes(SBase sBase, String... content) {
-        if (content != null && content.length > 0) {
-            StringJoiner joiner = new StringJoiner(System.lineSeparator(), "<notes><p xmlns=\"http://www.w3.org/1999/xhtml\">", "</p></notes>");
-            for (String s : content) {
-                if (s != null) {
-                    String removeTags = removeTags(s);
-                    joiner.add(removeTags);
-                }
-            }
-            String notes = joiner.toString();
+    private static XMLNode createXhtmlParagraph() {
+        XMLNamespaces namespaces = new XMLNamespaces();
+        namespaces.add(XHTML_NS);
+        return new XMLNode(new XMLTriple("p", XHTML_NS, ""), new XMLAttributes(), namespaces);
+    }
 
-            try {
-                XMLNode node = XMLNode.convertStringToXMLNode(notes);
-                sBase.appendNotes(node);
-            } catch (XMLStreamException e) {
-                logger.error(String.format("An error occurred while generating notes for '%s'", sBase.getId()), e);
+    /**
+     * Checks for characters that are not allowed in XML 1.0 and that remain after {@link #removeTags(String)}
+     */
+    private static boolean isXmlText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\uFFFE' || c == '\uFFFF') return false;
+            if (Character.isHighSurrogate(c)) {
+                if (i + 1 == text.length() || !Character.isLowSurrogate(text.charAt(i + 1))) return false;
+                i++;
+            } else if (Character.isLowSurrogate(c)) {
+                return false;
             }
         }
+        return true;
     }
 
     /**
-     * Adds information about the reactomeDB version and jsbml version
+     * Adds information about the reactomeDB version and jsbml version. The node is created once per run and
+     * a copy of it is added to every document.
      */
     static void addProvenanceAnnotation(SBase sBase, Integer version) {
-        Date date = new Date();
-        DateFormat dateFormat = new SimpleDateFormat();
-        String jsbml = String.format("" +
-                        "<annotation>" +
-                        "<p xmlns=\"http://www.w3.org/1999/xhtml\">" +
-                        "SBML generated from Reactome version %d on %s using JSBML version %s." +
-                        "</p>" +
-                        "</annotation>",
-                version, dateFormat.format(date), getJSBMLDottedVersion());
-
-        try {
-            XMLNode node = XMLNode.convertStringToXMLNode(jsbml);
-            sBase.appendNotes(node);
-        } catch (Exception e) {
-            logger.error(String.format("An error occurred while generating the provenance annotation for '%s'", sBase.getId()), e);
+        Provenance provenance = Helper.provenance;
+        if (provenance == null || !Objects.equals(provenance.version, version)) {
+            provenance = new Provenance(version);
+            Helper.provenance = provenance;
         }
+        sBase.appendNotes(provenance.node.clone());
     }
 
     static void addSBOTerm(SBase sBase, Integer term) {
@@ -311,45 +265,29 @@ public class Helper {
         }
     }
 
-    private static void addCreator(History history, Person person) {
-        Creator creator = new Creator();
-        creator.setFamilyName(person.getSurname() == null ? "" : person.getSurname());
-        creator.setGivenName(person.getFirstname() == null ? "" : person.getFirstname());
-        for (Affiliation a : person.getAffiliation()) creator.setOrganisation(a.getName().get(a.getName().size() - 1));
-        history.addCreator(creator);
-    }
-
     /**
      * Remove any html tags from the text.
      *
      * @param notes String to be adjusted.
      * @return String with any <></> removed.
      */
-    private static String removeTags(String notes) {
+    static String removeTags(String notes) {
         // if we have an xhtml tags in the text it messes up parsing copied from old reactome code with some additions
-        return notes.replaceAll("<->", " to ")
-                .replaceAll("\\p{Cntrl}+", " ")
-                .replaceAll("&+", " and ")
-                .replaceAll("<>", " interconverts to ")
-                .replaceAll("\n+", "  ")
-                //.replaceAll("</*[a-zA-Z][^>]*>", " ")
-                .replaceAll("<.*?>", "")
-                .replaceAll("<", " ");
+        return NotesSanitizer.sanitize(notes);
     }
 
-    /**
-     * Creates a Date object from the string stored in ReactomeDB.
-     *
-     * @param datetime String the date times as stored in ReactomeDB
-     * @return Date object created from the String or null if this
-     * cannot be parsed.
-     */
-    private static Date formatDate(String datetime) {
-        DateFormat format = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss", Locale.ENGLISH);
-        try {
-            return format.parse(datetime);
-        } catch (ParseException e) {
-            return null;
+    private static class Provenance {
+        private final Integer version;
+        private final XMLNode node;
+
+        private Provenance(Integer version) {
+            this.version = version;
+            String text = String.format("SBML generated from Reactome version %d on %s using JSBML version %s.",
+                    version, new SimpleDateFormat().format(new Date()), getJSBMLDottedVersion());
+            XMLNode p = createXhtmlParagraph();
+            p.addChild(new XMLNode(text));
+            node = new XMLNode(new XMLTriple("annotation"), new XMLAttributes());
+            node.addChild(p);
         }
     }
 }
@@ -0,0 +1,118 @@
+package org.reactome.server.tools.sbml.converter;
+
+import org.reactome.server.graph.domain.model.Affiliation;
+import org.reactome.server.graph.domain.model.Event;
+import org.reactome.server.graph.domain.model.InstanceEdit;
+import org.reactome.server.graph.domain.model.Person;
+import org.reactome.server.tools.sbml.util.LruCache;
+import org.sbml.jsbml.Creator;
+import org.sbml.jsbml.History;
+
+import java.text.ParsePosition;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Creates the {@link History} of the events. The same curators and InstanceEdits are found in thousands of
+ * events, so the parsed date of every InstanceEdit and the {@link Creator} of every Person are kept by DB_ID for the
+ * whole export, and each History gets its own copies of them.
+ */
+public final class HistoryFactory {
+
+    public static final int DEFAULT_CACHE_SIZE = 50000;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
+
+    private static final LruCache<Long, Optional<Date>> dates = new LruCache<>("InstanceEdit date cache", DEFAULT_CACHE_SIZE);
+    private static final LruCache<Long, Creator> creators = new LruCache<>("Creator cache", DEFAULT_CACHE_SIZE);
+
+    private HistoryFactory() {
+    }
+
+    static History create(Event event) {
+        History history = new History();
+        InstanceEdit created = event.getCreated();
+        if (created != null) {
+            addCreators(history, created);
+            history.setCreatedDate(getDate(created));
+        }
+
+        InstanceEdit modified = event.getModified();
+        if (modified != null) {
+            addCreators(history, modified);
+            history.addModifiedDate(getDate(modified));
+        }
+
+        for (InstanceEdit authored : event.getAuthored()) {
+            addCreators(history, authored);
+            history.addModifiedDate(getDate(authored));
+        }
+
+        for (InstanceEdit revised : event.getRevised()) {
+            addCreators(history, revised);
+            history.addModifiedDate(getDate(revised));
+        }
+        return history;
+    }
+
+    /**
+     * Creates a Date object from the string stored in ReactomeDB.
+     *
+     * @param datetime String the date times as stored in ReactomeDB
+     * @return Date object created from the String or null if this
+     * cannot be parsed.
+     */
+    static Date parseDate(String datetime) {
+        if (datetime == null) return null;
+        try {
+            // Anything after the seconds is ignored
+            LocalDateTime date = LocalDateTime.from(DATE_FORMAT.parse(datetime, new ParsePosition(0)));
+            return Date.from(date.atZone(ZoneId.systemDefault()).toInstant());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    public static void clearCache() {
+        dates.clear();
+        creators.clear();
+    }
+
+    public static String getStatistics() {
+        return dates.toString() + System.lineSeparator() + creators.toString();
+    }
+
+    private static void addCreators(History history, InstanceEdit edit) {
+        // The History becomes the parent of the Creator, so each one gets its own copy
+        for (Person person : edit.getAuthor()) history.addCreator(getCreator(person).clone());
+    }
+
+    private static Creator getCreator(Person person) {
+        Long dbId = person.getDbId();
+        Creator creator = dbId == null ? null : creators.get(dbId);
+        if (creator == null) {
+            creator = new Creator();
+            creator.setFamilyName(person.getSurname() == null ? "" : person.getSurname());
+            creator.setGivenName(person.getFirstname() == null ? "" : person.getFirstname());
+            for (Affiliation a : person.getAffiliation()) creator.setOrganisation(a.getName().get(a.getName().size() - 1));
+            if (dbId != null) creators.put(dbId, creator);
+        }
+        return creator;
+    }
+
+    private static Date getDate(InstanceEdit edit) {
+        Long dbId = edit.getDbId();
+        Optional<Date> date = dbId == null ? null : dates.get(dbId);
+        if (date == null) {
+            date = Optional.ofNullable(parseDate(edit.getDateTime()));
+            if (dbId != null) dates.put(dbId, date);
+        }
+        // Date is mutable, so it is not shared between documents
+        return date.map(d -> (Date) d.clone()).orElse(null);
+    }
+}
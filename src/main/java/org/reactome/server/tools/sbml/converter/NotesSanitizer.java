@@ -0,0 +1,133 @@
+package org.reactome.server.tools.sbml.converter;
+
+import org.reactome.server.tools.sbml.util.LruCache;
+
+/**
+ * Removes the markup that would break the xhtml of the SBML notes in a single pass over the text. The result is
+ * exactly the same as the former chain of regular expressions, applied in this order:
+ * <pre>
+ *     "&lt;-&gt;"          -&gt; " to "
+ *     "\p{Cntrl}+"   -&gt; " "
+ *     "&amp;+"           -&gt; " and "
+ *     "&lt;&gt;"           -&gt; " interconverts to "
+ *     "&lt;.*?&gt;"        -&gt; ""   (tags do not span lines)
+ *     "&lt;"            -&gt; " "
+ * </pre>
+ * Summation texts are the same in every pathway containing the annotated element, so the sanitised text is kept
+ * by Summation DB_ID for the whole export.
+ */
+public final class NotesSanitizer {
+
+    public static final int DEFAULT_CACHE_SIZE = 50000;
+
+    private static final LruCache<Long, Sanitized> cache = new LruCache<>("Notes cache", DEFAULT_CACHE_SIZE);
+
+    private NotesSanitizer() {
+    }
+
+    /**
+     * @param dbId the DB_ID of the Summation the text belongs to (null if it does not come from one)
+     * @param text the text to be sanitised
+     */
+    public static String sanitize(Long dbId, String text) {
+        if (dbId == null || text == null) return sanitize(text);
+        Sanitized cached = cache.get(dbId);
+        // The same text instance comes from the shared DatabaseObjects. The comparison protects against reused DB_IDs
+        if (cached != null && (cached.text == text || cached.text.equals(text))) return cached.sanitized;
+        String sanitized = sanitize(text);
+        cache.put(dbId, new Sanitized(text, sanitized));
+        return sanitized;
+    }
+
+    public static String sanitize(String text) {
+        if (text == null) return null;
+        int length = text.length();
+        // Most texts do not need any change
+        if (isClean(text)) return text;
+        StringBuilder sb = new StringBuilder(length + 16);
+        int tagStart = -1; // Position in sb of the '<' that may open a tag
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '<') {
+                if (i + 2 < length && text.charAt(i + 1) == '-' && text.charAt(i + 2) == '>') {
+                    sb.append(" to ");
+                    i += 2;
+                } else if (i + 1 < length && text.charAt(i + 1) == '>') {
+                    sb.append(" interconverts to ");
+                    i += 1;
+                } else {
+                    if (tagStart < 0) tagStart = sb.length();
+                    sb.append(c);
+                }
+            } else if (c == '>') {
+                if (tagStart >= 0) {
+                    sb.setLength(tagStart); // Removes the whole tag
+                    tagStart = -1;
+                } else {
+                    sb.append(c);
+                }
+            } else if (isControl(c)) {
+                while (i + 1 < length && isControl(text.charAt(i + 1))) i++;
+                sb.append(' ');
+            } else if (c == '&') {
+                while (i + 1 < length && text.charAt(i + 1) == '&') i++;
+                sb.append(" and ");
+            } else if (isLineTerminator(c)) {
+                // Tags do not span lines, so an open one is not a tag
+                closeUnmatched(sb, tagStart);
+                tagStart = -1;
+                sb.append(c);
+            } else {
+                sb.append(c);
+            }
+        }
+        closeUnmatched(sb, tagStart);
+        return sb.toString();
+    }
+
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    public static String getStatistics() {
+        return cache.toString();
+    }
+
+    private static boolean isClean(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '<' || c == '>' || c == '&' || isControl(c)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The '&lt;' that did not open a tag are replaced by a space
+     */
+    private static void closeUnmatched(StringBuilder sb, int tagStart) {
+        if (tagStart < 0) return;
+        for (int i = tagStart; i < sb.length(); i++) {
+            if (sb.charAt(i) == '<') sb.setCharAt(i, ' ');
+        }
+    }
+
+    // Same as \p{Cntrl}
+    private static boolean isControl(char c) {
+        return c < 0x20 || c == 0x7F;
+    }
+
+    // Line terminators for '.' other than \n and \r, which are control characters
+    private static boolean isLineTerminator(char c) {
+        return c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static class Sanitized {
+        private final String text;
+        private final String sanitized;
+
+        private Sanitized(String text, String sanitized) {
+            this.text = text;
+            this.sanitized = sanitized;
+        }
+    }
+}
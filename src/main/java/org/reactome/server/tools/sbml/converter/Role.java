@@ -25,6 +25,10 @@ enum Role {
     // http://www.ebi.ac.uk/sbo/main/SBO:0000020 inhibitor
     NEGATIVE_REGULATOR("_negativeregulator_", "modifierspeciesreference_", 20);
 
+    // Number of bits taken by each DB_ID in a species reference key (the role takes the 3 bits in between)
+    static final int DB_ID_BITS = 30;
+    private static final long MAX_DB_ID = (1L << DB_ID_BITS) - 1;
+
     final String str;
     final String prefix;
     final Integer term;
@@ -39,4 +43,16 @@ enum Role {
         return prefix + rxn + str + pe.getDbId();
     }
 
+    /**
+     * Same as {@link #getIdentifier(Long, PhysicalEntity)} but packed into a long, so it is not created for every
+     * participant just to check whether the reference already exists
+     *
+     * @return the key of the species reference or -1 if any of the DB_IDs does not fit in {@link #DB_ID_BITS}
+     */
+    public long getKey(Long rxn, PhysicalEntity pe) {
+        Long peDbId = pe.getDbId();
+        if (rxn == null || peDbId == null || rxn < 0 || rxn > MAX_DB_ID || peDbId < 0 || peDbId > MAX_DB_ID) return -1L;
+        return (rxn << (DB_ID_BITS + 3)) | ((long) ordinal() << DB_ID_BITS) | peDbId;
+    }
+
 }
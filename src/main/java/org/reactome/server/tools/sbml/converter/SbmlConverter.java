@@ -1,10 +1,14 @@
 package org.reactome.server.tools.sbml.converter;
 
+import java.io.File;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.reactome.server.graph.domain.model.Event;
 import org.reactome.server.graph.domain.model.NegativeRegulation;
 import org.reactome.server.graph.domain.model.Pathway;
@@ -12,9 +16,16 @@ import org.reactome.server.graph.domain.model.PhysicalEntity;
 import org.reactome.server.graph.domain.model.PositiveRegulation;
 import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
 import org.reactome.server.tools.sbml.data.DataFactory;
+import org.reactome.server.tools.sbml.data.GraphDataSource;
+import org.reactome.server.tools.sbml.data.SbmlDataSource;
 import org.reactome.server.tools.sbml.data.model.Participant;
 import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
 import org.reactome.server.tools.sbml.data.model.ReactionBase;
+import org.reactome.server.tools.sbml.util.DirectoryOutput;
+import org.reactome.server.tools.sbml.util.LongHashSet;
+import org.reactome.server.tools.sbml.util.PathwayMetrics;
+import org.reactome.server.tools.sbml.util.PathwayMetrics.Stage;
+import org.reactome.server.tools.sbml.util.SbmlOutput;
 import org.reactome.server.tools.sbml.util.Utils;
 import org.sbml.jsbml.CVTerm;
 import org.sbml.jsbml.Compartment;
@@ -31,8 +42,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * For a given event this converter uses the {@link DataFactory} to retrieve its target data and proceeds with the
- * conversion to a {@link SBMLDocument} taking advantage of the methods in the {@link Helper} class.
+ * For a given event this converter uses a {@link SbmlDataSource} (by default the {@link DataFactory} queries) to
+ * retrieve its target data and proceeds with the conversion to a {@link SBMLDocument} taking advantage of the methods
+ * in the {@link Helper} class.
  *
  * @author Antonio Fabregat (fabregat@ebi.ac.uk)
  * @author Kostas Sidiropoulos (ksidiro@ebi.ac.uk)
@@ -53,25 +65,43 @@ public class SbmlConverter {
     public static final String SPECIES_PREFIX = "species_";
     public static final String COMPARTMENT_PREFIX = "compartment_";
 
-    private AdvancedDatabaseObjectService ads;
+    private static final String LIST_OF_COMPARTMENTS = "listOfCompartments";
+    private static final String LIST_OF_SPECIES = "listOfSpecies";
+    private static final String LIST_OF_REACTIONS = "listOfReactions";
+
+    private SbmlDataSource dataSource;
     protected Pathway pathway;
     protected String targetStId;
 
     private SBMLDocument sbmlDocument = null;
+    // Only set while the conversion is being streamed
+    private SbmlStreamWriter streamWriter = null;
 
     private long metaid_count = 0L;
-    private Set<String> existingObjects = new HashSet<>();
+    // Species references already added, by Role.getKey()
+    private final LongHashSet speciesReferences = new LongHashSet();
+    // Species references whose DB_IDs cannot be packed into a key, by identifier
+    private final Set<String> otherSpeciesReferences = new HashSet<>();
+    // DB_IDs of the compartments already added
+    private final LongHashSet compartmentIds = new LongHashSet();
     private final Integer reactomeVersion;
+    private final PathwayMetrics metrics;
 
     protected SbmlConverter(String targetId, Integer version) {
         this.targetStId = targetId;
         this.reactomeVersion = version;
+        this.metrics = new PathwayMetrics(targetId);
     }
     
     public SbmlConverter(Event event, Integer version, AdvancedDatabaseObjectService ads) {
+        this(event, version, new GraphDataSource(ads));
+    }
+
+    public SbmlConverter(Event event, Integer version, SbmlDataSource dataSource) {
         this.targetStId = event.getStId();
         this.reactomeVersion = version;
-        this.ads = ads;
+        this.dataSource = dataSource;
+        this.metrics = new PathwayMetrics(targetStId);
         if (event instanceof Pathway) {
             this.pathway = (Pathway) event;
         } else {
@@ -84,7 +114,117 @@ public class SbmlConverter {
     public SBMLDocument convert() {
         if (sbmlDocument != null) return sbmlDocument;
 
-        sbmlDocument = new SBMLDocument(SBML_LEVEL, SBML_VERSION);
+        metrics.start(Stage.BUILD);
+        try {
+            sbmlDocument = createDocument();
+            Model model = sbmlDocument.getModel();
+
+            metrics.time(Stage.FETCH, this::loadData);
+
+            Collection<ParticipantDetails> participants = metrics.time(Stage.FETCH, this::getParticipantDetails);
+            for (ParticipantDetails p : participants) model.addSpecies(createSpecies(p));
+
+            for (ReactionBase rxn : metrics.time(Stage.FETCH, this::getReactionList)) model.addReaction(createReaction(rxn));
+        } finally {
+            metrics.stop();
+        }
+
+        return sbmlDocument;
+    }
+
+    /**
+     * Converts the target event writing each SBML element to the stream as soon as it is created, so the
+     * {@link SBMLDocument} is never built. The content is the same as the one written via {@link #convert()}.
+     * Only the JSBML objects are spared: the participants and reactions of the event are still retrieved in full
+     * before anything is written, since the compartments go first in the file.
+     *
+     * @param os where the SBML is written to. It is not closed by this method.
+     */
+    public void stream(OutputStream os) throws XMLStreamException {
+        metaid_count = 0L;
+        speciesReferences.clear();
+        otherSpeciesReferences.clear();
+        compartmentIds.clear();
+        streamWriter = new SbmlStreamWriter(os);
+        try {
+            streamWriter.writeStart(metrics.time(Stage.BUILD, this::createDocument));
+
+            metrics.time(Stage.FETCH, this::loadData);
+
+            Collection<ParticipantDetails> participants = metrics.time(Stage.FETCH, this::getParticipantDetails);
+            Collection<ReactionBase> reactions = metrics.time(Stage.FETCH, this::getReactionList);
+
+            // Compartments go first in the file but they are created while adding species and reactions
+            writeCompartments(participants, reactions);
+            for (ParticipantDetails p : participants) streamWriter.write(LIST_OF_SPECIES, metrics.time(Stage.BUILD, () -> createSpecies(p)));
+            for (ReactionBase rxn : reactions) streamWriter.write(LIST_OF_REACTIONS, metrics.time(Stage.BUILD, () -> createReaction(rxn)));
+
+            streamWriter.writeEnd();
+        } finally {
+            streamWriter.close();
+            streamWriter = null;
+        }
+    }
+
+    /**
+     * Same as calling {@link #convert()} and {@link #writeToFile(String)} but without building the SBMLDocument
+     * when {@link #isStreamable()}
+     */
+    public void streamToFile(String output) {
+        write(new DirectoryOutput(new File(output), false), true);
+    }
+
+    /**
+     * Converts the target event (unless it has already been converted) and writes it to the provided output
+     *
+     * @param stream when true the SBMLDocument is not built if {@link #isStreamable()} (see {@link #stream(OutputStream)})
+     * @return true if the model has been written
+     */
+    public boolean write(SbmlOutput output, boolean stream) {
+        boolean success = false;
+        metrics.start(Stage.WRITE);
+        try {
+            if (stream && sbmlDocument == null && metrics.time(Stage.FETCH, this::isStreamable)) {
+                output.write(targetStId, os -> serialize(os, this::stream));
+            } else {
+                SBMLDocument doc = convert();
+                output.write(targetStId, os -> serialize(os, o -> Utils.writeSBML(o, doc)));
+            }
+            success = true;
+        } catch (Exception e) {
+            logger.error(String.format("Error writing SBML file for '%s'", targetStId), e);
+        } finally {
+            metrics.finish(success);
+        }
+        return success;
+    }
+
+    private void serialize(OutputStream os, SbmlOutput.ModelWriter writer) throws Exception {
+        metrics.start(Stage.SERIALIZE);
+        try {
+            writer.write(metrics.count(os));
+        } finally {
+            metrics.stop();
+        }
+    }
+
+    /**
+     * @return the time spent in each stage of the conversion and the number of elements and bytes written
+     */
+    public PathwayMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Refactored method for subclassing. Subclasses adding content that is not written by {@link #stream(OutputStream)}
+     * (e.g. a layout) have to return false so the full SBMLDocument is built instead.
+     */
+    protected boolean isStreamable() {
+        return true;
+    }
+
+    private SBMLDocument createDocument() {
+        SBMLDocument doc = new SBMLDocument(SBML_LEVEL, SBML_VERSION);
 
         String modelId, pathwayName;
         if (pathway != null) {
@@ -95,46 +235,74 @@ public class SbmlConverter {
             pathwayName = "No parent pathway detected";
         }
 
-        Model model = sbmlDocument.createModel(modelId);
+        Model model = doc.createModel(modelId);
         model.setName(pathwayName);
         model.setMetaId(META_ID_PREFIX + metaid_count++);
-        Helper.addProvenanceAnnotation(sbmlDocument, reactomeVersion);
+        Helper.addProvenanceAnnotation(doc, reactomeVersion);
         Helper.addAnnotations(model, pathway);
+        return doc;
+    }
 
-        Collection<ParticipantDetails> participants = getParticipantDetails();
-        for (ParticipantDetails p : participants) addParticipant(model, p);
-
-        for (ReactionBase rxn : getReactionList()) {
-            String id = REACTION_PREFIX + rxn.getDbId();
-            Reaction rn = model.createReaction(id);
-            rn.setMetaId(META_ID_PREFIX + metaid_count++);
-            //noinspection deprecation
-            rn.setFast(false);
-            rn.setReversible(false);
-            rn.setName(rxn.getDisplayName());
-
-            addCompartment(rn, rxn.getCompartments());
-
-            if (rxn.getInputs() != null && !rxn.getInputs().isEmpty()) addInputs(rxn.getDbId(), rn, rxn.getInputs());
-            if (rxn.getOutpus() != null && !rxn.getOutpus().isEmpty()) addOutputs(rxn.getDbId(), rn, rxn.getOutpus());
-            if (rxn.getCatalysts() != null && !rxn.getCatalysts().isEmpty()) addModifier(rxn.getDbId(), rn, rxn.getCatalysts(), Role.CATALYST);
-            if (rxn.getPositiveRegulators() != null && !rxn.getPositiveRegulators().isEmpty()) addModifier(rxn.getDbId(), rn, rxn.getPositiveRegulators(), Role.POSITIVE_REGULATOR);
-            if (rxn.getNegativeRegulators() != null && !rxn.getNegativeRegulators().isEmpty()) addModifier(rxn.getDbId(), rn, rxn.getNegativeRegulators(), Role.NEGATIVE_REGULATOR);
+    private Reaction createReaction(ReactionBase rxn) {
+        String id = REACTION_PREFIX + rxn.getDbId();
+        Reaction rn = new Reaction(id, SBML_LEVEL, SBML_VERSION);
+        metrics.addReaction();
+        rn.setMetaId(META_ID_PREFIX + metaid_count++);
+        //noinspection deprecation
+        rn.setFast(false);
+        rn.setReversible(false);
+        rn.setName(rxn.getDisplayName());
+
+        addCompartment(rn, rxn.getCompartments());
+
+        if (rxn.getInputs() != null && !rxn.getInputs().isEmpty()) addInputs(rxn.getDbId(), rn, rxn.getInputs());
+        if (rxn.getOutpus() != null && !rxn.getOutpus().isEmpty()) addOutputs(rxn.getDbId(), rn, rxn.getOutpus());
+        if (rxn.getCatalysts() != null && !rxn.getCatalysts().isEmpty()) addModifier(rxn.getDbId(), rn, rxn.getCatalysts(), Role.CATALYST);
+        if (rxn.getPositiveRegulators() != null && !rxn.getPositiveRegulators().isEmpty()) addModifier(rxn.getDbId(), rn, rxn.getPositiveRegulators(), Role.POSITIVE_REGULATOR);
+        if (rxn.getNegativeRegulators() != null && !rxn.getNegativeRegulators().isEmpty()) addModifier(rxn.getDbId(), rn, rxn.getNegativeRegulators(), Role.NEGATIVE_REGULATOR);
+
+        Helper.addAnnotations(rn, rxn.getReactionLikeEvent());
+        Helper.addCVTerms(rn, rxn);
+        return rn;
+    }
 
-            Helper.addAnnotations(rn, rxn.getReactionLikeEvent());
-            Helper.addCVTerms(rn, rxn);
+    /**
+     * Writes the compartments with the metaids they would get if created while adding species and reactions,
+     * so the streamed file matches the one written from the SBMLDocument.
+     */
+    private void writeCompartments(Collection<ParticipantDetails> participants, Collection<ReactionBase> reactions) throws XMLStreamException {
+        long count = metaid_count;
+        LongHashSet written = new LongHashSet();
+        for (ParticipantDetails p : participants) {
+            count++; // the species
+            List<org.reactome.server.graph.domain.model.Compartment> compartments = p.getPhysicalEntity().getCompartment();
+            if (compartments.size() > 0 && written.add(getKey(compartments.get(0)))) {
+                streamWriter.write(LIST_OF_COMPARTMENTS, createCompartment(compartments.get(0), count++));
+            }
         }
+        for (ReactionBase rxn : reactions) {
+            count++; // the reaction
+            List<org.reactome.server.graph.domain.model.Compartment> compartments = rxn.getCompartments();
+            if (compartments.size() > 0 && written.add(getKey(compartments.get(0)))) {
+                streamWriter.write(LIST_OF_COMPARTMENTS, createCompartment(compartments.get(0), count++));
+            }
+        }
+    }
 
-        return sbmlDocument;
+    /**
+     * Refactored method for subclassing. Called once per conversion before {@link #getParticipantDetails()} and
+     * {@link #getReactionList()} so that subclasses can load the data shared by both of them in one go.
+     */
+    protected void loadData() {
     }
-    
+
     /**
      * Refactored method for subclassing.
      * @param targetStId
      * @return
      */
     protected Collection<ParticipantDetails> getParticipantDetails() {
-        return DataFactory.getParticipantDetails(targetStId, ads);
+        return dataSource.getParticipantDetails(targetStId);
     }
     
     /**
@@ -143,7 +311,7 @@ public class SbmlConverter {
      * @return
      */
     protected Collection<ReactionBase> getReactionList() {
-        return DataFactory.getReactionList(targetStId, ads);
+        return dataSource.getReactionList(targetStId);
     }
 
     public void writeToFile(String output) {
@@ -153,43 +321,40 @@ public class SbmlConverter {
 
     private void addInputs(Long reactionDbId, Reaction rn, List<Participant> participants) {
         for (Participant participant : participants) {
-            String sr_id = Role.INPUT.getIdentifier(reactionDbId, participant.getPhysicalEntity());
-            if (!existingObjects.contains(sr_id)) {
-                String speciesId = SPECIES_PREFIX + participant.getPhysicalEntity().getDbId();
+            PhysicalEntity pe = participant.getPhysicalEntity();
+            if (addSpeciesReference(reactionDbId, Role.INPUT, pe)) {
+                String sr_id = Role.INPUT.getIdentifier(reactionDbId, pe);
+                String speciesId = SPECIES_PREFIX + pe.getDbId();
 
                 SpeciesReference sr = rn.createReactant(sr_id, speciesId);
                 sr.setConstant(true);
                 Helper.addSBOTerm(sr, Role.INPUT.term);
                 sr.setStoichiometry(participant.getStoichiometry());
-
-                existingObjects.add(sr_id);
             }
         }
     }
 
     private void addOutputs(Long reactionDbId, Reaction rn, List<Participant> participants) {
         for (Participant participant : participants) {
-            String sr_id = Role.OUTPUT.getIdentifier(reactionDbId, participant.getPhysicalEntity());
-
-            if (!existingObjects.contains(sr_id)) {
-                String speciesId = SPECIES_PREFIX + participant.getPhysicalEntity().getDbId();
+            PhysicalEntity pe = participant.getPhysicalEntity();
+            if (addSpeciesReference(reactionDbId, Role.OUTPUT, pe)) {
+                String sr_id = Role.OUTPUT.getIdentifier(reactionDbId, pe);
+                String speciesId = SPECIES_PREFIX + pe.getDbId();
 
                 SpeciesReference sr = rn.createProduct(sr_id, speciesId);
                 sr.setConstant(true);
                 Helper.addSBOTerm(sr, Role.OUTPUT.term);
                 sr.setStoichiometry(participant.getStoichiometry());
-
-                existingObjects.add(sr_id);
             }
         }
     }
 
     private void addModifier(Long reactionDbId, Reaction rn, List<Participant> participants, Role role) {
         for (Participant participant : participants) {
-            String sr_id = role.getIdentifier(reactionDbId, participant.getPhysicalEntity());
-
-            if (!existingObjects.contains(sr_id)) {
-                String speciesId = SPECIES_PREFIX + participant.getPhysicalEntity().getDbId();
+            PhysicalEntity pe = participant.getPhysicalEntity();
+            if (addSpeciesReference(reactionDbId, role, pe)) {
+                String sr_id = role.getIdentifier(reactionDbId, pe);
+                String speciesId = SPECIES_PREFIX + pe.getDbId();
 
                 ModifierSpeciesReference sr = rn.createModifier(sr_id, speciesId);
                 Helper.addSBOTerm(sr, role.term);
@@ -203,17 +368,25 @@ public class SbmlConverter {
                         explanation = (new NegativeRegulation()).getExplanation();
                 }
                 if (explanation != null) Helper.addNotes(sr, explanation);
-
-                existingObjects.add(sr_id);
             }
         }
     }
 
-    private void addParticipant(Model model, ParticipantDetails participant) {
+    /**
+     * @return true if the reference of the entity in the given role of the reaction had not been added yet
+     */
+    private boolean addSpeciesReference(Long reactionDbId, Role role, PhysicalEntity pe) {
+        long key = role.getKey(reactionDbId, pe);
+        if (key >= 0) return speciesReferences.add(key);
+        return otherSpeciesReferences.add(role.getIdentifier(reactionDbId, pe));
+    }
+
+    private Species createSpecies(ParticipantDetails participant) {
         String speciesId = SPECIES_PREFIX + participant.getPhysicalEntity().getDbId();
 
         PhysicalEntity pe = participant.getPhysicalEntity();
-        Species s = model.createSpecies(speciesId);
+        Species s = new Species(speciesId, SBML_LEVEL, SBML_VERSION);
+        metrics.addSpecies();
         s.setMetaId(META_ID_PREFIX + metaid_count++);
         s.setName(pe.getDisplayName());
         // set other required fields for SBML L3
@@ -224,6 +397,7 @@ public class SbmlConverter {
         Helper.addAnnotations(s, participant);
 
         addCompartment(s, pe.getCompartment());
+        return s;
     }
 
     private void addCompartment(CompartmentalizedSBase s, List<org.reactome.server.graph.domain.model.Compartment> compartments) {
@@ -237,18 +411,29 @@ public class SbmlConverter {
     }
 
     private void addCompartment(CompartmentalizedSBase s, org.reactome.server.graph.domain.model.Compartment compartment) {
-        String comp_id = COMPARTMENT_PREFIX + compartment.getDbId();
-        if (!existingObjects.contains(comp_id)) {
-            Compartment c = sbmlDocument.getModel().createCompartment(comp_id);
-            c.setMetaId(META_ID_PREFIX + metaid_count++);
-            c.setName(compartment.getDisplayName());
-            c.setConstant(true);
-            Helper.addSBOTerm(c, SBOTermLookup.get(compartment));
-
-            Helper.addCVTerm(c, CVTerm.Qualifier.BQB_IS, compartment.getUrl());
-            existingObjects.add(comp_id);
+        if (compartmentIds.add(getKey(compartment))) {
+            metrics.addCompartment();
+            long metaid = metaid_count++;
+            // When streaming, compartments have already been written with this same metaid
+            if (streamWriter == null) sbmlDocument.getModel().addCompartment(createCompartment(compartment, metaid));
         }
-        s.setCompartment(comp_id);
+        s.setCompartment(COMPARTMENT_PREFIX + compartment.getDbId());
+    }
+
+    private static long getKey(org.reactome.server.graph.domain.model.Compartment compartment) {
+        // DB_IDs are positive, so a compartment without one cannot be mistaken for another one
+        return compartment.getDbId() == null ? -1L : compartment.getDbId();
+    }
+
+    private Compartment createCompartment(org.reactome.server.graph.domain.model.Compartment compartment, long metaid) {
+        Compartment c = new Compartment(COMPARTMENT_PREFIX + compartment.getDbId(), SBML_LEVEL, SBML_VERSION);
+        c.setMetaId(META_ID_PREFIX + metaid);
+        c.setName(compartment.getDisplayName());
+        c.setConstant(true);
+        Helper.addSBOTerm(c, SBOTermLookup.get(compartment));
+
+        Helper.addCVTerm(c, CVTerm.Qualifier.BQB_IS, compartment.getUrl());
+        return c;
     }
 
     /**
@@ -0,0 +1,197 @@
+package org.reactome.server.tools.sbml.converter;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.sbml.jsbml.JSBML;
+import org.sbml.jsbml.ListOf;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBase;
+import org.sbml.jsbml.xml.XMLNode;
+import org.sbml.jsbml.xml.parsers.SBMLRDFAnnotationParser;
+
+/**
+ * Writes an SBML file element by element using StAX so that the whole model never has to be kept in memory.
+ * Every element is passed as a JSBML object that is not attached to any model, so that notes and annotations are
+ * created by the same {@link Helper} methods used for the {@link SBMLDocument} and the RDF is produced by JSBML
+ * itself. Elements have to be passed in document order: compartments, species and then reactions.
+ */
+class SbmlStreamWriter {
+
+    private static final String INDENT = "  ";
+
+    private final XMLStreamWriter writer;
+    private final SBMLRDFAnnotationParser annotationParser = new SBMLRDFAnnotationParser();
+
+    private int depth = 0;
+    // The listOf element currently open in the model (null when none)
+    private String currentList = null;
+
+    SbmlStreamWriter(OutputStream os) throws XMLStreamException {
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+    }
+
+    /**
+     * Writes the sbml and model start elements including their notes and annotations. The model should not
+     * contain any component since these are written via {@link #write(String, SBase)}
+     */
+    void writeStart(SBMLDocument doc) throws XMLStreamException {
+        Model model = doc.getModel();
+        writer.writeStartDocument("UTF-8", "1.0");
+        newLine();
+        writer.writeStartElement(doc.getElementName());
+        writer.writeDefaultNamespace(JSBML.getNamespaceFrom(doc.getLevel(), doc.getVersion()));
+        writeAttributes(doc);
+        depth++;
+        writeContent(doc, getAnnotation(doc));
+        newLine();
+        writer.writeStartElement(model.getElementName());
+        writeAttributes(model);
+        depth++;
+        writeContent(model, getAnnotation(model));
+    }
+
+    /**
+     * @param listName the model list the element belongs to (e.g. listOfSpecies)
+     * @param sBase the element to be written
+     */
+    void write(String listName, SBase sBase) throws XMLStreamException {
+        if (!listName.equals(currentList)) {
+            closeList();
+            newLine();
+            writer.writeStartElement(listName);
+            depth++;
+            currentList = listName;
+        }
+        writeElement(sBase);
+    }
+
+    /**
+     * Closes the open list, the model and the sbml elements and flushes the content
+     */
+    void writeEnd() throws XMLStreamException {
+        closeList();
+        for (int i = 0; i < 2; i++) {
+            depth--;
+            newLine();
+            writer.writeEndElement();
+        }
+        newLine();
+        writer.writeEndDocument();
+        writer.flush();
+    }
+
+    void close() throws XMLStreamException {
+        writer.close();
+    }
+
+    private void closeList() throws XMLStreamException {
+        if (currentList == null) return;
+        depth--;
+        newLine();
+        writer.writeEndElement();
+        currentList = null;
+    }
+
+    private void writeElement(SBase sBase) throws XMLStreamException {
+        XMLNode annotation = getAnnotation(sBase);
+        boolean hasChildren = sBase.isSetNotes() || annotation != null;
+        if (sBase instanceof Reaction) {
+            Reaction rn = (Reaction) sBase;
+            hasChildren |= rn.getReactantCount() > 0 || rn.getProductCount() > 0 || rn.getModifierCount() > 0;
+        }
+        newLine();
+        if (!hasChildren) {
+            writer.writeEmptyElement(sBase.getElementName());
+            writeAttributes(sBase);
+            return;
+        }
+        writer.writeStartElement(sBase.getElementName());
+        writeAttributes(sBase);
+        depth++;
+        writeContent(sBase, annotation);
+        if (sBase instanceof Reaction) {
+            Reaction rn = (Reaction) sBase;
+            if (rn.getReactantCount() > 0) writeList(rn.getListOfReactants());
+            if (rn.getProductCount() > 0) writeList(rn.getListOfProducts());
+            if (rn.getModifierCount() > 0) writeList(rn.getListOfModifiers());
+        }
+        depth--;
+        newLine();
+        writer.writeEndElement();
+    }
+
+    private void writeList(ListOf<? extends SBase> list) throws XMLStreamException {
+        newLine();
+        writer.writeStartElement(list.getElementName());
+        depth++;
+        for (SBase sBase : list) writeElement(sBase);
+        depth--;
+        newLine();
+        writer.writeEndElement();
+    }
+
+    private void writeContent(SBase sBase, XMLNode annotation) throws XMLStreamException {
+        if (sBase.isSetNotes()) {
+            newLine();
+            writeNode(sBase.getNotes());
+        }
+        if (annotation != null) {
+            newLine();
+            writeNode(annotation);
+        }
+    }
+
+    private XMLNode getAnnotation(SBase sBase) {
+        if (!sBase.isSetAnnotation()) return null;
+        return annotationParser.writeAnnotation(sBase, null);
+    }
+
+    private void writeAttributes(SBase sBase) throws XMLStreamException {
+        // JSBML writes the attributes sorted by name
+        Map<String, String> attributes = new TreeMap<>(sBase.writeXMLAttributes());
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            writer.writeAttribute(attribute.getKey(), attribute.getValue());
+        }
+    }
+
+    /**
+     * Copies an XMLNode (notes or annotation) to the output as it is
+     */
+    private void writeNode(XMLNode node) throws XMLStreamException {
+        if (node.isText()) {
+            writer.writeCharacters(node.getCharacters());
+            return;
+        }
+        String prefix = node.getPrefix() == null ? "" : node.getPrefix();
+        String uri = node.getURI() == null ? "" : node.getURI();
+        if (node.getChildCount() == 0) writer.writeEmptyElement(prefix, node.getName(), uri);
+        else writer.writeStartElement(prefix, node.getName(), uri);
+        for (int i = 0; i < node.getNamespacesLength(); i++) {
+            String nsPrefix = node.getNamespacePrefix(i);
+            if (nsPrefix == null || nsPrefix.isEmpty()) writer.writeDefaultNamespace(node.getNamespaceURI(i));
+            else writer.writeNamespace(nsPrefix, node.getNamespaceURI(i));
+        }
+        for (int i = 0; i < node.getAttributesLength(); i++) {
+            String attPrefix = node.getAttrPrefix(i);
+            if (attPrefix == null || attPrefix.isEmpty()) writer.writeAttribute(node.getAttrName(i), node.getAttrValue(i));
+            else writer.writeAttribute(attPrefix, node.getAttrURI(i), node.getAttrName(i), node.getAttrValue(i));
+        }
+        if (node.getChildCount() == 0) return;
+        for (int i = 0; i < node.getChildCount(); i++) writeNode(node.getChildAt(i));
+        writer.writeEndElement();
+    }
+
+    private void newLine() throws XMLStreamException {
+        StringBuilder sb = new StringBuilder(System.lineSeparator());
+        for (int i = 0; i < depth; i++) sb.append(INDENT);
+        writer.writeCharacters(sb.toString());
+    }
+}
@@ -0,0 +1,168 @@
+package org.reactome.server.tools.sbml.converter;
+
+import org.reactome.server.tools.sbml.util.LruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the urls added to the SBML files. It is shared by all the worker threads:
+ * <ul>
+ *     <li>The url2identifier.txt prefixes are indexed by scheme and host, so only the few prefixes of the same host
+ *     are compared with each url, and the urls already rewritten to identifiers.org are kept.</li>
+ *     <li>The accessUrl of each ReferenceDatabase is kept by DB_ID, already split around the ###ID### placeholder,
+ *     so it is not read from the database again for every identifier.</li>
+ * </ul>
+ */
+public final class UrlResolver {
+
+    private static Logger logger = LoggerFactory.getLogger("sbml-exporter");
+
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+    private static final String ID_PLACEHOLDER = "###ID###";
+
+    private static final LruCache<String, String> identifierUrls = new LruCache<>("Identifier URL cache", DEFAULT_CACHE_SIZE);
+    // There are only a few hundred ReferenceDatabases, so they are never evicted
+    private static final Map<Long, AccessUrl> accessUrls = new ConcurrentHashMap<>();
+
+    private UrlResolver() {
+    }
+
+    /**
+     * @return the identifiers.org url for the given one if its prefix is in url2identifier.txt, otherwise the same url
+     */
+    public static String toIdentifierUrl(String url) {
+        if (url == null) return null;
+        String rtn = identifierUrls.get(url);
+        if (rtn == null) {
+            rtn = PrefixIndex.INSTANCE.convert(url);
+            identifierUrls.put(url, rtn);
+        }
+        return rtn;
+    }
+
+    /**
+     * @return the accessUrl kept for the ReferenceDatabase or null if it has not been added yet
+     */
+    public static AccessUrl getAccessUrl(Long referenceDatabaseId) {
+        return accessUrls.get(referenceDatabaseId);
+    }
+
+    public static AccessUrl putAccessUrl(Long referenceDatabaseId, String accessUrl) {
+        AccessUrl rtn = new AccessUrl(accessUrl);
+        accessUrls.put(referenceDatabaseId, rtn);
+        return rtn;
+    }
+
+    public static void clearCache() {
+        identifierUrls.clear();
+        accessUrls.clear();
+    }
+
+    public static String getStatistics() {
+        return identifierUrls.toString() + ", " + accessUrls.size() + " access urls";
+    }
+
+    /**
+     * Scheme and host of the url, or the whole url if it has no host
+     */
+    private static String getHost(String url) {
+        int start = url.indexOf("://");
+        if (start < 0) return url;
+        for (int i = start + 3; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') return url.substring(0, i);
+        }
+        return url;
+    }
+
+    /**
+     * An accessUrl of a ReferenceDatabase, split around the ###ID### placeholder
+     */
+    public static class AccessUrl {
+        private final String[] parts;
+
+        private AccessUrl(String accessUrl) {
+            List<String> parts = new ArrayList<>(2);
+            int from = 0;
+            for (int i = accessUrl.indexOf(ID_PLACEHOLDER); i >= 0; i = accessUrl.indexOf(ID_PLACEHOLDER, from)) {
+                parts.add(accessUrl.substring(from, i));
+                from = i + ID_PLACEHOLDER.length();
+            }
+            parts.add(accessUrl.substring(from));
+            this.parts = parts.toArray(new String[0]);
+        }
+
+        /**
+         * @return the url with every ###ID### replaced by the given identifier
+         */
+        public String expand(String id) {
+            if (parts.length == 1) return parts[0];
+            StringBuilder sb = new StringBuilder(parts[0]);
+            for (int i = 1; i < parts.length; i++) sb.append(id).append(parts[i]);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * url2identifier.txt is loaded only once, the first time it is needed
+     */
+    private static class PrefixIndex {
+        private static final PrefixIndex INSTANCE = new PrefixIndex();
+
+        // Rules grouped by the scheme and host of their prefix, the longest prefix first
+        private final Map<String, List<Rule>> rules = new HashMap<>();
+
+        private PrefixIndex() {
+            int n = 0;
+            try (InputStream is = UrlResolver.class.getClassLoader().getResourceAsStream("url2identifier.txt");
+                 BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
+                br.readLine(); // Header
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.startsWith("#")) continue;
+                    String[] tokens = line.split("\t");
+                    rules.computeIfAbsent(getHost(tokens[0]), k -> new ArrayList<>()).add(new Rule(tokens[0], tokens[1]));
+                    n++;
+                }
+                logger.info("Loaded url2identifier.txt: " + n);
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+            for (List<Rule> list : rules.values()) list.sort((r1, r2) -> r2.prefix.length() - r1.prefix.length());
+        }
+
+        String convert(String url) {
+            for (Rule rule : rules.getOrDefault(getHost(url), Collections.emptyList())) {
+                if (url.startsWith(rule.prefix)) {
+                    // The id goes up to the first parameter after it, if any
+                    int start = rule.prefix.length();
+                    int end = url.indexOf('&', start);
+                    if (end < 0) end = url.length();
+                    return rule.identifierUrl + url.substring(start, end);
+                }
+            }
+            return url;
+        }
+    }
+
+    private static class Rule {
+        private final String prefix;
+        private final String identifierUrl;
+
+        private Rule(String prefix, String identifierUrl) {
+            this.prefix = prefix;
+            this.identifierUrl = identifierUrl;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package org.reactome.server.tools.sbml.data;
 
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.reactome.server.graph.domain.model.PhysicalEntity;
+import org.reactome.server.graph.domain.model.ReactionLikeEvent;
 import org.reactome.server.graph.exception.CustomQueryException;
 import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
 import org.reactome.server.graph.service.DatabaseObjectService;
@@ -7,6 +10,7 @@ import org.reactome.server.tools.sbml.data.model.IdentifierBase;
 import org.reactome.server.tools.sbml.data.model.Participant;
 import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
 import org.reactome.server.tools.sbml.data.model.ReactionBase;
+import org.reactome.server.tools.sbml.data.result.MembershipResult;
 import org.reactome.server.tools.sbml.data.result.ParticipantDetailsResult;
 import org.reactome.server.tools.sbml.data.result.ParticipantResult;
 import org.reactome.server.tools.sbml.data.result.ReactionBaseResult;
@@ -16,7 +20,11 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Retrieves the data in an efficient way in order to speed up the conversion process
@@ -29,11 +37,23 @@ public abstract class DataFactory {
 
     private static DatabaseObjectService ds;
 
-    private static final String REACTIONS_QUERY = "" +
+    // Number of stIds resolved per query, species-wide extractions resolve tens of thousands of them
+    private static final int BATCH_SIZE = 5000;
+
+    // The reaction itself or all the reactions under a pathway
+    private static final String EVENT_REACTIONS = "" +
             "OPTIONAL MATCH (rle1:ReactionLikeEvent{stId:$stId}) " +
             "OPTIONAL MATCH (:Pathway{stId:$stId})-[:hasEvent*]->(rle2:ReactionLikeEvent) " +
             "WITH DISTINCT COLLECT(DISTINCT rle1) + COLLECT(DISTINCT rle2) AS rles " +
-            "UNWIND rles AS rle " +
+            "UNWIND rles AS rle ";
+
+    // All the reactions in the pathways of a species
+    private static final String SPECIES_REACTIONS = "" +
+            "MATCH (:Species{dbId:$dbId})<-[:species]-(:Pathway)-[:hasEvent]->(rle:ReactionLikeEvent) " +
+            "WITH COLLECT(DISTINCT rle) AS rles " +
+            "UNWIND rles AS rle ";
+
+    private static final String REACTION_DETAILS = "" +
             "OPTIONAL MATCH (rle)-[:goBiologicalProcess]->(gobp:GO_BiologicalProcess)  " +
             "OPTIONAL MATCH (rle)-[:catalystActivity]->(cat:CatalystActivity) " +
             "OPTIONAL MATCH (cat)-[:activity]->(gomf:GO_MolecularFunction)  " +
@@ -56,12 +76,10 @@ public abstract class DataFactory {
             "OPTIONAL MATCH (rle)-[:regulatedBy]->(:NegativeRegulation)-[:regulator]->(penr:PhysicalEntity) " +
             "RETURN DISTINCT rle.stId AS rle, goTerms, ecNumbers, literatureRefs, xrefs, diseases, inputs, outputs, catalysts, positiveRegulators, COLLECT(DISTINCT CASE penr WHEN NULL THEN NULL ELSE {n: 0,  pe: penr.stId} END) AS negativeRegulators";
 
-    private static final String PARTICIPANTS_QUERY = "" +
-            "OPTIONAL MATCH (rle1:ReactionLikeEvent{stId:$stId}) " +
-            "OPTIONAL MATCH (:Pathway{stId:$stId})-[:hasEvent*]->(rle2:ReactionLikeEvent) " +
-            "WITH DISTINCT COLLECT(DISTINCT rle1) + COLLECT(DISTINCT rle2) AS rles " +
-            "UNWIND rles AS rle " +
-            "MATCH (rle)-[:input|output|catalystActivity|physicalEntity|regulatedBy|regulator*]->(pe:PhysicalEntity) " +
+    private static final String REACTION_PARTICIPANTS = "" +
+            "MATCH (rle)-[:input|output|catalystActivity|physicalEntity|regulatedBy|regulator*]->(pe:PhysicalEntity) ";
+
+    private static final String PARTICIPANT_DETAILS = "" +
             "WITH COLLECT(DISTINCT pe) AS pes " +
             "UNWIND pes AS pe " +
             //GEE do not have RE but they must be in the species (without identifier)
@@ -76,29 +94,54 @@ public abstract class DataFactory {
             "       }) AS ids, " +
             "       COLLECT(DISTINCT re.url) AS urls";
 
+    private static final String REACTIONS_QUERY = EVENT_REACTIONS + REACTION_DETAILS;
+
+    private static final String PARTICIPANTS_QUERY = EVENT_REACTIONS + REACTION_PARTICIPANTS + PARTICIPANT_DETAILS;
+
+    private static final String SPECIES_REACTIONS_QUERY = SPECIES_REACTIONS + REACTION_DETAILS;
+
+    private static final String SPECIES_PARTICIPANTS_QUERY = SPECIES_REACTIONS + REACTION_PARTICIPANTS + PARTICIPANT_DETAILS;
+
+    private static final String SPECIES_REACTION_PARTICIPANTS_QUERY = SPECIES_REACTIONS + REACTION_PARTICIPANTS +
+            "RETURN rle.stId AS stId, COLLECT(DISTINCT pe.stId) AS members";
+
+    // Only the direct sub-events, the hierarchy is walked in memory
+    private static final String SPECIES_HIERARCHY_QUERY = "" +
+            "MATCH (:Species{dbId:$dbId})<-[:species]-(p:Pathway)-[:hasEvent]->(e:Event) " +
+            "RETURN p.stId AS stId, COLLECT(DISTINCT e.stId) AS members";
+
+    private static final String REACTIONS_BY_STID_QUERY = "" +
+            "UNWIND $stIds AS stId " +
+            "MATCH (rle:ReactionLikeEvent{stId:stId}) " +
+            "RETURN rle";
+
+    private static final String PHYSICAL_ENTITIES_BY_STID_QUERY = "" +
+            "UNWIND $stIds AS stId " +
+            "MATCH (pe:PhysicalEntity{stId:stId}) " +
+            "RETURN pe";
+
     //work with DataFactoryHelper to autowire the DatabaseObjectService
     public DataFactory(DatabaseObjectService ds) {
         DataFactory.ds = ds;
     }
 
     public static Collection<ReactionBase> getReactionList(String eventStId, AdvancedDatabaseObjectService ads) {
+        return getReactionList(eventStId, ads, new HashMap<>());
+    }
+
+    /**
+     * @param identityMap objects already retrieved by stId. The ones retrieved here are added to it, so a
+     *                    PhysicalEntity is only retrieved once no matter how many roles and reactions it takes part in
+     */
+    public static Collection<ReactionBase> getReactionList(String eventStId, AdvancedDatabaseObjectService ads, Map<String, DatabaseObject> identityMap) {
 
         try {
             Collection<ReactionBaseResult> reactionBaseResults = ads.getCustomQueryResults(ReactionBaseResult.class, REACTIONS_QUERY, Collections.singletonMap("stId", eventStId));
+            resolveReactions(reactionBaseResults, ads, identityMap);
+
             Collection<ReactionBase> reactionBases = new ArrayList<>();
             for (ReactionBaseResult reactionBaseResult : reactionBaseResults) {
-                ReactionBase reactionBase = new ReactionBase();
-                reactionBase.setRle(ds.findByIdNoRelations(reactionBaseResult.getRle()));
-                reactionBase.setGoTerms(reactionBaseResult.getGoTerms());
-                reactionBase.setEcNumbers(reactionBaseResult.getEcNumbers());
-                reactionBase.setLiteratureRefs(reactionBaseResult.getLiteratureRefs());
-                reactionBase.setXrefs(reactionBaseResult.getXrefs());
-                reactionBase.setDiseases(reactionBaseResult.getDiseases());
-                reactionBase.setInputs(getParticipantResults(ds, reactionBaseResult.getInputs()));
-                reactionBase.setOutputs(getParticipantResults(ds, reactionBaseResult.getOutputs()));
-                reactionBase.setCatalysts(getParticipantResults(ds, reactionBaseResult.getPositiveRegulators()));
-                reactionBase.setNegativeRegulators(getParticipantResults(ds, reactionBaseResult.getPositiveRegulators()));
-                reactionBases.add(reactionBase);
+                reactionBases.add(createReactionBase(reactionBaseResult, identityMap));
             }
             return reactionBases;
         } catch (CustomQueryException e) {
@@ -108,21 +151,20 @@ public abstract class DataFactory {
     }
 
     public static Collection<ParticipantDetails> getParticipantDetails(String eventStId, AdvancedDatabaseObjectService ads) {
+        return getParticipantDetails(eventStId, ads, new HashMap<>());
+    }
+
+    /**
+     * @param identityMap objects already retrieved by stId. The PhysicalEntities retrieved here are added to it
+     */
+    public static Collection<ParticipantDetails> getParticipantDetails(String eventStId, AdvancedDatabaseObjectService ads, Map<String, DatabaseObject> identityMap) {
         try {
             Collection<ParticipantDetailsResult> participantDetailsResults = ads.getCustomQueryResults(ParticipantDetailsResult.class, PARTICIPANTS_QUERY, Collections.singletonMap("stId", eventStId));
+            resolveParticipants(participantDetailsResults, ads, identityMap);
+
             Collection<ParticipantDetails> participantDetails = new ArrayList<>();
             for (ParticipantDetailsResult participantDetailsResult : participantDetailsResults) {
-                ParticipantDetails participantDetail = new ParticipantDetails();
-
-                for(IdentifierBase identifierBase: participantDetailsResult.getIds()){
-                    participantDetail.addIdentifierBase(identifierBase);
-                }
-                for(String url: participantDetailsResult.getUrls()){
-                    participantDetail.addUrl(url);
-                }
-
-                participantDetail.setPhysicalEntity(ds.findByIdNoRelations(participantDetailsResult.getPeStId()));
-                participantDetails.add(participantDetail);
+                participantDetails.add(createParticipantDetails(participantDetailsResult, identityMap));
             }
             return participantDetails;
         } catch (CustomQueryException e) {
@@ -131,14 +173,133 @@ public abstract class DataFactory {
         }
     }
 
-    public static List<Participant> getParticipantResults(DatabaseObjectService ds, List<ParticipantResult> participantsQueryResults) {
+    /**
+     * @param identityMap has to contain the PhysicalEntities of the participants, see {@link #resolve}
+     */
+    public static List<Participant> getParticipantResults(Map<String, DatabaseObject> identityMap, List<ParticipantResult> participantsQueryResults) {
         List<Participant> participants = new ArrayList<>();
         Participant participant = new Participant();
         for (ParticipantResult participantResult : participantsQueryResults) {
             participant.setStoichiometry(participantResult.getStoichiometry());
-            participant.setPhysicalEntity(ds.findByIdNoRelations(participantResult.getPhysicalEntity()));
+            participant.setPhysicalEntity((PhysicalEntity) identityMap.get(participantResult.getPhysicalEntity()));
             participants.add(participant);
         }
         return participants;
     }
+
+    static Collection<ReactionBaseResult> getSpeciesReactionResults(Long speciesDbId, AdvancedDatabaseObjectService ads) throws CustomQueryException {
+        return ads.getCustomQueryResults(ReactionBaseResult.class, SPECIES_REACTIONS_QUERY, Collections.singletonMap("dbId", speciesDbId));
+    }
+
+    static Collection<ParticipantDetailsResult> getSpeciesParticipantResults(Long speciesDbId, AdvancedDatabaseObjectService ads) throws CustomQueryException {
+        return ads.getCustomQueryResults(ParticipantDetailsResult.class, SPECIES_PARTICIPANTS_QUERY, Collections.singletonMap("dbId", speciesDbId));
+    }
+
+    /**
+     * @return the stIds of the PhysicalEntities taking part in each reaction of the species
+     */
+    static Collection<MembershipResult> getSpeciesReactionParticipants(Long speciesDbId, AdvancedDatabaseObjectService ads) throws CustomQueryException {
+        return ads.getCustomQueryResults(MembershipResult.class, SPECIES_REACTION_PARTICIPANTS_QUERY, Collections.singletonMap("dbId", speciesDbId));
+    }
+
+    /**
+     * @return the stIds of the direct sub-events of each pathway of the species
+     */
+    static Collection<MembershipResult> getSpeciesHierarchy(Long speciesDbId, AdvancedDatabaseObjectService ads) throws CustomQueryException {
+        return ads.getCustomQueryResults(MembershipResult.class, SPECIES_HIERARCHY_QUERY, Collections.singletonMap("dbId", speciesDbId));
+    }
+
+    /**
+     * Adds the reactions and their participants that are not in the identity map yet to it
+     */
+    static void resolveReactions(Collection<ReactionBaseResult> reactionBaseResults, AdvancedDatabaseObjectService ads, Map<String, DatabaseObject> identityMap) {
+        Set<String> rles = new HashSet<>();
+        Set<String> pes = new HashSet<>();
+        for (ReactionBaseResult reactionBaseResult : reactionBaseResults) {
+            rles.add(reactionBaseResult.getRle());
+            addPhysicalEntities(pes, reactionBaseResult.getInputs());
+            addPhysicalEntities(pes, reactionBaseResult.getOutputs());
+            addPhysicalEntities(pes, reactionBaseResult.getPositiveRegulators());
+        }
+        resolve(ReactionLikeEvent.class, REACTIONS_BY_STID_QUERY, rles, ads, identityMap);
+        resolve(PhysicalEntity.class, PHYSICAL_ENTITIES_BY_STID_QUERY, pes, ads, identityMap);
+    }
+
+    /**
+     * Adds the PhysicalEntities that are not in the identity map yet to it
+     */
+    static void resolveParticipants(Collection<ParticipantDetailsResult> participantDetailsResults, AdvancedDatabaseObjectService ads, Map<String, DatabaseObject> identityMap) {
+        Set<String> pes = new HashSet<>();
+        for (ParticipantDetailsResult participantDetailsResult : participantDetailsResults) {
+            pes.add(participantDetailsResult.getPeStId());
+        }
+        resolve(PhysicalEntity.class, PHYSICAL_ENTITIES_BY_STID_QUERY, pes, ads, identityMap);
+    }
+
+    /**
+     * @param identityMap has to contain the reaction and its participants, see {@link #resolveReactions}
+     */
+    static ReactionBase createReactionBase(ReactionBaseResult reactionBaseResult, Map<String, DatabaseObject> identityMap) {
+        ReactionBase reactionBase = new ReactionBase();
+        reactionBase.setRle((ReactionLikeEvent) identityMap.get(reactionBaseResult.getRle()));
+        reactionBase.setGoTerms(reactionBaseResult.getGoTerms());
+        reactionBase.setEcNumbers(reactionBaseResult.getEcNumbers());
+        reactionBase.setLiteratureRefs(reactionBaseResult.getLiteratureRefs());
+        reactionBase.setXrefs(reactionBaseResult.getXrefs());
+        reactionBase.setDiseases(reactionBaseResult.getDiseases());
+        reactionBase.setInputs(getParticipantResults(identityMap, reactionBaseResult.getInputs()));
+        reactionBase.setOutputs(getParticipantResults(identityMap, reactionBaseResult.getOutputs()));
+        reactionBase.setCatalysts(getParticipantResults(identityMap, reactionBaseResult.getPositiveRegulators()));
+        reactionBase.setNegativeRegulators(getParticipantResults(identityMap, reactionBaseResult.getPositiveRegulators()));
+        return reactionBase;
+    }
+
+    /**
+     * A new one every time since the converter adds urls to it
+     *
+     * @param identityMap has to contain the PhysicalEntity, see {@link #resolveParticipants}
+     */
+    static ParticipantDetails createParticipantDetails(ParticipantDetailsResult participantDetailsResult, Map<String, DatabaseObject> identityMap) {
+        ParticipantDetails participantDetail = new ParticipantDetails();
+
+        for(IdentifierBase identifierBase: participantDetailsResult.getIds()){
+            participantDetail.addIdentifierBase(identifierBase);
+        }
+        for(String url: participantDetailsResult.getUrls()){
+            participantDetail.addUrl(url);
+        }
+
+        participantDetail.setPhysicalEntity((PhysicalEntity) identityMap.get(participantDetailsResult.getPeStId()));
+        return participantDetail;
+    }
+
+    private static void addPhysicalEntities(Set<String> pes, List<ParticipantResult> participantsQueryResults) {
+        for (ParticipantResult participantResult : participantsQueryResults) {
+            pes.add(participantResult.getPhysicalEntity());
+        }
+    }
+
+    /**
+     * Retrieves the objects with the given stIds that are not in the identity map yet with one query per BATCH_SIZE
+     * stIds and adds them to it. If a query fails, the objects of that batch are retrieved one by one.
+     */
+    private static <T extends DatabaseObject> void resolve(Class<T> clazz, String query, Set<String> stIds, AdvancedDatabaseObjectService ads, Map<String, DatabaseObject> identityMap) {
+        List<String> missing = new ArrayList<>();
+        for (String stId : stIds) {
+            if (stId != null && !identityMap.containsKey(stId)) missing.add(stId);
+        }
+        for (int i = 0; i < missing.size(); i += BATCH_SIZE) {
+            List<String> batch = missing.subList(i, Math.min(i + BATCH_SIZE, missing.size()));
+            try {
+                for (T object : ads.getCustomQueryResults(clazz, query, Collections.singletonMap("stIds", batch))) {
+                    identityMap.put(object.getStId(), object);
+                }
+            } catch (CustomQueryException e) {
+                logger.warn("Cannot retrieve the " + clazz.getSimpleName() + " instances in batch: " + e.getMessage());
+                for (String stId : batch) {
+                    identityMap.put(stId, ds.findByIdNoRelations(stId));
+                }
+            }
+        }
+    }
 }
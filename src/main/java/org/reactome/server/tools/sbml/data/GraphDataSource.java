@@ -0,0 +1,35 @@
+package org.reactome.server.tools.sbml.data;
+
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
+import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
+import org.reactome.server.tools.sbml.data.model.ReactionBase;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Retrieves the data from the graph database via the {@link DataFactory} queries. A data source is used for a single
+ * conversion, so the objects retrieved for the participants are shared with the reactions.
+ */
+public class GraphDataSource implements SbmlDataSource {
+
+    private final AdvancedDatabaseObjectService ads;
+    // Objects already retrieved, by stId
+    private final Map<String, DatabaseObject> identityMap = new HashMap<>();
+
+    public GraphDataSource(AdvancedDatabaseObjectService ads) {
+        this.ads = ads;
+    }
+
+    @Override
+    public Collection<ParticipantDetails> getParticipantDetails(String eventStId) {
+        return DataFactory.getParticipantDetails(eventStId, ads, identityMap);
+    }
+
+    @Override
+    public Collection<ReactionBase> getReactionList(String eventStId) {
+        return DataFactory.getReactionList(eventStId, ads, identityMap);
+    }
+}
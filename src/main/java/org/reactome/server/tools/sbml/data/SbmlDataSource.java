@@ -0,0 +1,17 @@
+package org.reactome.server.tools.sbml.data;
+
+import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
+import org.reactome.server.tools.sbml.data.model.ReactionBase;
+
+import java.util.Collection;
+
+/**
+ * Provides the denormalised data converted by {@link org.reactome.server.tools.sbml.converter.SbmlConverter} for
+ * a given event: the participants (species) and the reactions contained in it.
+ */
+public interface SbmlDataSource {
+
+    Collection<ParticipantDetails> getParticipantDetails(String eventStId);
+
+    Collection<ReactionBase> getReactionList(String eventStId);
+}
@@ -0,0 +1,188 @@
+package org.reactome.server.tools.sbml.data;
+
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.reactome.server.graph.domain.model.Species;
+import org.reactome.server.graph.exception.CustomQueryException;
+import org.reactome.server.graph.service.AdvancedDatabaseObjectService;
+import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
+import org.reactome.server.tools.sbml.data.model.ReactionBase;
+import org.reactome.server.tools.sbml.data.result.MembershipResult;
+import org.reactome.server.tools.sbml.data.result.ParticipantDetailsResult;
+import org.reactome.server.tools.sbml.data.result.ReactionBaseResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Retrieves the data of every pathway of a species at once. The first time it is used, every ReactionLikeEvent of
+ * the species is extracted with its participants, together with the direct sub-events of every pathway, with a few
+ * species-wide {@link DataFactory} queries. Each pathway is then assembled from that in memory, so a reaction found
+ * in several nested pathways is only extracted once and converting a pathway needs no further queries.
+ * <p>
+ * Unlike {@link GraphDataSource}, one instance is meant to be shared by all the conversions (and threads) of a
+ * species. Events that are not in the pathways of the species are retrieved with the per-event queries.
+ */
+public class SpeciesGraphDataSource implements SbmlDataSource {
+
+    private static Logger logger = LoggerFactory.getLogger("sbml-exporter");
+
+    private final Long speciesDbId;
+    private final AdvancedDatabaseObjectService ads;
+
+    private volatile Index index;
+
+    public SpeciesGraphDataSource(Species species, AdvancedDatabaseObjectService ads) {
+        this.speciesDbId = species.getDbId();
+        this.ads = ads;
+    }
+
+    /**
+     * For an index that has already been extracted (e.g. in tests)
+     */
+    SpeciesGraphDataSource(Index index, AdvancedDatabaseObjectService ads) {
+        this.speciesDbId = null;
+        this.ads = ads;
+        this.index = index;
+    }
+
+    @Override
+    public Collection<ParticipantDetails> getParticipantDetails(String eventStId) {
+        Index index = getIndex();
+        Set<String> reactions = index == null ? null : index.getReactions(eventStId);
+        if (reactions == null) return DataFactory.getParticipantDetails(eventStId, ads);
+
+        Set<String> pes = new HashSet<>();
+        for (String reaction : reactions) {
+            pes.addAll(index.reactionParticipants.getOrDefault(reaction, Collections.emptyList()));
+        }
+        Collection<ParticipantDetails> participantDetails = new ArrayList<>();
+        for (int position : index.getPositions(pes, index.participantPositions)) {
+            participantDetails.add(DataFactory.createParticipantDetails(index.participants.get(position), index.identityMap));
+        }
+        return participantDetails;
+    }
+
+    @Override
+    public Collection<ReactionBase> getReactionList(String eventStId) {
+        Index index = getIndex();
+        Set<String> reactions = index == null ? null : index.getReactions(eventStId);
+        if (reactions == null) return DataFactory.getReactionList(eventStId, ads);
+
+        Collection<ReactionBase> reactionBases = new ArrayList<>();
+        for (int position : index.getPositions(reactions, index.reactionPositions)) {
+            reactionBases.add(DataFactory.createReactionBase(index.reactions.get(position), index.identityMap));
+        }
+        return reactionBases;
+    }
+
+    /**
+     * @return the in-memory index of the species, extracted the first time, or null if it cannot be extracted
+     */
+    private Index getIndex() {
+        Index rtn = index;
+        if (rtn == null) {
+            synchronized (this) {
+                rtn = index;
+                if (rtn == null) {
+                    rtn = load();
+                    // Not tried again if it failed, the per-event queries are used instead
+                    index = rtn == null ? Index.EMPTY : rtn;
+                }
+            }
+        }
+        return rtn == Index.EMPTY ? null : rtn;
+    }
+
+    private Index load() {
+        long start = System.currentTimeMillis();
+        try {
+            List<ReactionBaseResult> reactions = new ArrayList<>(DataFactory.getSpeciesReactionResults(speciesDbId, ads));
+            List<ParticipantDetailsResult> participants = new ArrayList<>(DataFactory.getSpeciesParticipantResults(speciesDbId, ads));
+            Map<String, DatabaseObject> identityMap = new HashMap<>();
+            DataFactory.resolveReactions(reactions, ads, identityMap);
+            DataFactory.resolveParticipants(participants, ads, identityMap);
+            Index rtn = new Index(reactions,
+                                  participants,
+                                  DataFactory.getSpeciesReactionParticipants(speciesDbId, ads),
+                                  DataFactory.getSpeciesHierarchy(speciesDbId, ads),
+                                  identityMap);
+            logger.info(String.format("Extracted %d reactions, %d participants and %d pathways of species %d in %d ms",
+                    rtn.reactions.size(), rtn.participants.size(), rtn.subEvents.size(), speciesDbId, System.currentTimeMillis() - start));
+            return rtn;
+        } catch (CustomQueryException e) {
+            logger.error("Cannot extract species " + speciesDbId + ": " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * The species-wide results, indexed by stId so that assembling a pathway only visits its own reactions and
+     * participants. Read only once created.
+     */
+    static class Index {
+        static final Index EMPTY = new Index(Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyMap());
+
+        final List<ReactionBaseResult> reactions;
+        final List<ParticipantDetailsResult> participants;
+        // Reaction and participant stIds to their position in the lists above, which keeps the order of the results
+        final Map<String, Integer> reactionPositions = new HashMap<>();
+        final Map<String, Integer> participantPositions = new HashMap<>();
+        // Reaction stId to the stIds of its participants
+        final Map<String, List<String>> reactionParticipants = new HashMap<>();
+        // Pathway stId to the stIds of its direct sub-events
+        final Map<String, List<String>> subEvents = new HashMap<>();
+        final Map<String, DatabaseObject> identityMap;
+
+        /**
+         * @param identityMap has to contain the reactions and participants, see {@link DataFactory#resolveReactions}
+         */
+        Index(List<ReactionBaseResult> reactions,
+              List<ParticipantDetailsResult> participants,
+              Collection<MembershipResult> reactionParticipants,
+              Collection<MembershipResult> hierarchy,
+              Map<String, DatabaseObject> identityMap) {
+            this.reactions = reactions;
+            this.participants = participants;
+            this.identityMap = identityMap;
+            for (int i = 0; i < reactions.size(); i++) reactionPositions.putIfAbsent(reactions.get(i).getRle(), i);
+            for (int i = 0; i < participants.size(); i++) participantPositions.putIfAbsent(participants.get(i).getPeStId(), i);
+            for (MembershipResult result : reactionParticipants) this.reactionParticipants.put(result.getStId(), result.getMembers());
+            for (MembershipResult result : hierarchy) subEvents.put(result.getStId(), result.getMembers());
+        }
+
+        /**
+         * @return the positions of the passed stIds that are in the index, in the order of the results
+         */
+        int[] getPositions(Set<String> stIds, Map<String, Integer> positions) {
+            int[] rtn = new int[stIds.size()];
+            int size = 0;
+            for (String stId : stIds) {
+                Integer position = positions.get(stId);
+                if (position != null) rtn[size++] = position;
+            }
+            rtn = Arrays.copyOf(rtn, size);
+            Arrays.sort(rtn);
+            return rtn;
+        }
+
+        /**
+         * @return the event itself if it is a reaction or all the reactions under it, or null if it is unknown
+         */
+        Set<String> getReactions(String eventStId) {
+            if (reactionPositions.containsKey(eventStId)) return Collections.singleton(eventStId);
+            if (!subEvents.containsKey(eventStId)) return null;
+            Set<String> rtn = new HashSet<>();
+            Set<String> visited = new HashSet<>();
+            Deque<String> pending = new ArrayDeque<>();
+            pending.push(eventStId);
+            while (!pending.isEmpty()) {
+                String stId = pending.pop();
+                if (!visited.add(stId)) continue;
+                if (reactionPositions.containsKey(stId)) rtn.add(stId);
+                for (String subEvent : subEvents.getOrDefault(stId, Collections.emptyList())) pending.push(subEvent);
+            }
+            return rtn;
+        }
+    }
+}
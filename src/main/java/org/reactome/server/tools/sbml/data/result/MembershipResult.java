@@ -0,0 +1,40 @@
+package org.reactome.server.tools.sbml.data.result;
+
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Value;
+import org.reactome.server.graph.domain.result.CustomQuery;
+
+import java.util.List;
+
+/**
+ * The stIds of the objects linked to a given one, e.g. the sub-events of a pathway or the participants of a reaction
+ */
+public class MembershipResult implements CustomQuery {
+
+    private String stId;
+    private List<String> members;
+
+    public String getStId() {
+        return stId;
+    }
+
+    public void setStId(String stId) {
+        this.stId = stId;
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    public void setMembers(List<String> members) {
+        this.members = members;
+    }
+
+    @Override
+    public CustomQuery build(Record r) {
+        MembershipResult membershipResult = new MembershipResult();
+        membershipResult.setStId(r.get("stId").asString(null));
+        membershipResult.setMembers(r.get("members").asList(Value::asString));
+        return membershipResult;
+    }
+}
@@ -0,0 +1,370 @@
+package org.reactome.server.tools.sbml.data.synthetic;
+
+import org.reactome.server.graph.domain.model.*;
+import org.reactome.server.tools.sbml.data.SbmlDataSource;
+import org.reactome.server.tools.sbml.data.model.IdentifierBase;
+import org.reactome.server.tools.sbml.data.model.Participant;
+import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
+import org.reactome.server.tools.sbml.data.model.ReactionBase;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds synthetic pathways in memory so that the conversion can be profiled and load-tested without a Reactome
+ * database. Every stable identifier (e.g. R-SYN-1) gives always the same pathway for the same seed and settings:
+ * <ul>
+ *     <li>reactions: the number of reactions in the pathway, with 1-3 inputs, 1-2 outputs, a catalyst in half of
+ *     them and regulators in a fifth of them, taken from a pool of twice as many entities</li>
+ *     <li>complexDepth: how deep complexes are nested (1 means complexes of proteins and small molecules only)</li>
+ *     <li>annotationDensity: the number of literature references, GO terms, cross references and instance edits
+ *     per element, which also scales the length of the summations (0 means none)</li>
+ * </ul>
+ * A converter gets the participants first and then the reactions, so the generated pathway is kept by its stable
+ * identifier until its reactions are taken, to give both from the same objects. Pathways are deterministic, so
+ * another conversion of the same one at the same time gets the same content even if it takes the other's objects.
+ */
+public class SyntheticPathwayGenerator implements SbmlDataSource {
+
+    public static final String STID_PREFIX = "R-SYN-";
+
+    private static final String[] WORDS = {"the", "protein", "complex", "binds", "to", "phosphorylated", "receptor",
+            "in", "cytosol", "and", "is", "translocated", "nucleus", "where", "it", "activates", "transcription", "of",
+            "target", "genes", "<i>kinase</i>", "domain", "ATP", "ADP", "membrane", "signaling", "&", "<->", "<b>Ca2+</b>"};
+
+    private static final String[] COMPARTMENTS = {"cytosol", "nucleoplasm", "plasma membrane", "extracellular region",
+            "mitochondrial matrix", "endoplasmic reticulum lumen", "Golgi membrane", "lysosomal lumen"};
+
+    private final long seed;
+    private int reactions = 50;
+    private int complexDepth = 2;
+    private int annotationDensity = 2;
+
+    // Pathways whose participants have been given and their reactions not yet, by stable identifier
+    private final Map<String, SyntheticPathway> pending = new ConcurrentHashMap<>();
+
+    public SyntheticPathwayGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public void setReactions(int reactions) {
+        this.reactions = Math.max(1, reactions);
+    }
+
+    public void setComplexDepth(int complexDepth) {
+        this.complexDepth = Math.max(1, complexDepth);
+    }
+
+    public void setAnnotationDensity(int annotationDensity) {
+        this.annotationDensity = Math.max(0, annotationDensity);
+    }
+
+    /**
+     * @return the stable identifiers of the given number of synthetic pathways
+     */
+    public static List<String> getStIds(int pathways) {
+        List<String> rtn = new ArrayList<>(pathways);
+        for (int i = 1; i <= pathways; i++) rtn.add(STID_PREFIX + i);
+        return rtn;
+    }
+
+    /**
+     * @return the pathway to be passed to the converter together with this data source
+     */
+    public Pathway getPathway(String stId) {
+        return new Builder(stId).createPathway();
+    }
+
+    @Override
+    public Collection<ParticipantDetails> getParticipantDetails(String eventStId) {
+        // Always a new one, the converter adds urls to the participant details
+        SyntheticPathway pathway = new Builder(eventStId).build();
+        pending.put(eventStId, pathway);
+        return pathway.participants;
+    }
+
+    @Override
+    public Collection<ReactionBase> getReactionList(String eventStId) {
+        SyntheticPathway pathway = pending.remove(eventStId);
+        if (pathway == null) pathway = new Builder(eventStId).build();
+        return pathway.reactions;
+    }
+
+    private static class SyntheticPathway {
+        private final Collection<ParticipantDetails> participants;
+        private final Collection<ReactionBase> reactions;
+
+        private SyntheticPathway(Collection<ParticipantDetails> participants, Collection<ReactionBase> reactions) {
+            this.participants = participants;
+            this.reactions = reactions;
+        }
+    }
+
+    /**
+     * A physical entity together with the reference entities at the bottom of its hierarchy
+     */
+    private static class Entity {
+        private final PhysicalEntity pe;
+        private final Map<String, Integer> ids = new LinkedHashMap<>();
+        private final Set<String> urls = new LinkedHashSet<>();
+
+        private Entity(PhysicalEntity pe) {
+            this.pe = pe;
+        }
+
+        private void add(Entity component) {
+            component.ids.forEach((id, n) -> ids.merge(id, n, Integer::sum));
+            urls.addAll(component.urls);
+        }
+    }
+
+    /**
+     * Creates the objects of one pathway. Identifiers are unique within the pathway and derived from its stable
+     * identifier, so they do not clash between pathways either.
+     */
+    private class Builder {
+        private final String stId;
+        private final Random random;
+        private final List<Compartment> compartments = new ArrayList<>();
+        private final List<Person> persons = new ArrayList<>();
+        private long dbId;
+
+        private Builder(String stId) {
+            this.stId = stId;
+            this.random = new Random(seed * 31 + stId.hashCode());
+            long number;
+            try {
+                number = Long.parseLong(stId.substring(stId.lastIndexOf('-') + 1));
+            } catch (NumberFormatException e) {
+                number = stId.hashCode() & 0xFFFFF;
+            }
+            this.dbId = number * 10_000_000L;
+            for (int i = 0; i < COMPARTMENTS.length; i++) {
+                Compartment compartment = init(new Compartment(), COMPARTMENTS[i]);
+                compartment.setUrl("http://purl.obolibrary.org/obo/GO_" + (5000000 + i));
+                compartments.add(compartment);
+            }
+            for (int i = 0; i < 5; i++) {
+                Affiliation affiliation = new Affiliation();
+                affiliation.setName(Collections.singletonList("Institute " + i));
+                Person person = init(new Person(), "Curator" + i + ", C");
+                person.setFirstname("C");
+                person.setSurname("Curator" + i);
+                person.setAffiliation(Collections.singletonList(affiliation));
+                persons.add(person);
+            }
+        }
+
+        private Pathway createPathway() {
+            Pathway pathway = init(new Pathway(), "Synthetic pathway " + stId);
+            pathway.setStId(stId);
+            fillInEvent(pathway);
+            return pathway;
+        }
+
+        private SyntheticPathway build() {
+            dbId++; // The pathway
+            List<Entity> pool = new ArrayList<>();
+            for (int i = 0; i < reactions * 2; i++) pool.add(createParticipant());
+
+            Map<PhysicalEntity, Entity> used = new LinkedHashMap<>();
+            List<ReactionBase> reactionList = new ArrayList<>();
+            for (int i = 0; i < reactions; i++) {
+                Reaction rle = init(new Reaction(), "Synthetic reaction " + i);
+                fillInEvent(rle);
+                ReactionBase rxn = new ReactionBase();
+                rxn.setRle(rle);
+                rxn.setGoTerms(urls("http://purl.obolibrary.org/obo/GO_", annotationDensity));
+                rxn.setEcNumbers(urls("https://identifiers.org/ec-code/3.1.", annotationDensity / 2));
+                rxn.setLiteratureRefs(urls("http://www.ncbi.nlm.nih.gov/pubmed/", annotationDensity));
+                rxn.setXrefs(urls("https://www.rhea-db.org/rhea/", annotationDensity));
+                rxn.setDiseases(urls("http://purl.obolibrary.org/obo/DOID_", random.nextInt(annotationDensity + 1) / 2));
+                rxn.setInputs(participants(pool, used, 1 + random.nextInt(3), 1));
+                rxn.setOutputs(participants(pool, used, 1 + random.nextInt(2), 1));
+                rxn.setCatalysts(participants(pool, used, random.nextInt(2), 0));
+                rxn.setPositiveRegulators(participants(pool, used, random.nextInt(10) < 2 ? 1 : 0, 0));
+                rxn.setNegativeRegulators(participants(pool, used, random.nextInt(10) < 2 ? 1 : 0, 0));
+                reactionList.add(rxn);
+            }
+
+            List<ParticipantDetails> participants = new ArrayList<>(used.size());
+            for (Entity entity : used.values()) {
+                ParticipantDetails details = new ParticipantDetails();
+                details.setPhysicalEntity(entity.pe);
+                entity.ids.forEach((id, n) -> {
+                    IdentifierBase base = new IdentifierBase();
+                    base.setId(id);
+                    base.setN(n);
+                    details.addIdentifierBase(base);
+                });
+                entity.urls.forEach(details::addUrl);
+                participants.add(details);
+            }
+            return new SyntheticPathway(participants, reactionList);
+        }
+
+        private List<Participant> participants(List<Entity> pool, Map<PhysicalEntity, Entity> used, int count, int stoichiometry) {
+            List<Participant> rtn = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Entity entity = pool.get(random.nextInt(pool.size()));
+                used.put(entity.pe, entity);
+                Participant participant = new Participant();
+                participant.setPhysicalEntity(entity.pe);
+                participant.setStoichiometry(stoichiometry == 0 ? 0 : stoichiometry + random.nextInt(2));
+                rtn.add(participant);
+            }
+            return rtn;
+        }
+
+        private Entity createParticipant() {
+            int type = random.nextInt(20);
+            if (type < 8) return createProtein();
+            if (type < 13) return createComplex(complexDepth);
+            if (type < 18) return createSmallMolecule();
+            return createSet();
+        }
+
+        private Entity createProtein() {
+            EntityWithAccessionedSequence ewas = init(new EntityWithAccessionedSequence(), null);
+            fillInEntity(ewas);
+            List<AbstractModifiedResidue> residues = new ArrayList<>();
+            for (int i = 0; i < annotationDensity / 2; i++) {
+                PsiMod psiMod = init(new PsiMod(), "O-phospho-L-serine");
+                psiMod.setUrl(String.format("http://purl.obolibrary.org/obo/MOD_%05d", 46 + i));
+                ModifiedResidue residue = init(new ModifiedResidue(), "O-phospho-L-serine at " + (10 + i));
+                residue.setPsiMod(psiMod);
+                residues.add(residue);
+            }
+            ewas.setHasModifiedResidue(residues);
+            String accession = String.format("P%05d", random.nextInt(100000));
+            ewas.setDisplayName(accession + " [" + ewas.getCompartment().get(0).getDisplayName() + "]");
+            Entity entity = new Entity(ewas);
+            entity.ids.put(accession, 1);
+            entity.urls.add("http://purl.uniprot.org/uniprot/" + accession);
+            return entity;
+        }
+
+        private Entity createSmallMolecule() {
+            SimpleEntity se = init(new SimpleEntity(), null);
+            fillInEntity(se);
+            String chebi = "CHEBI:" + (10000 + random.nextInt(90000));
+            se.setDisplayName(chebi + " [" + se.getCompartment().get(0).getDisplayName() + "]");
+            Entity entity = new Entity(se);
+            entity.ids.put(chebi, 1);
+            entity.urls.add("http://www.ebi.ac.uk/chebi/searchId.do?chebiId=" + chebi);
+            return entity;
+        }
+
+        private Entity createComplex(int depth) {
+            Complex complex = init(new Complex(), null);
+            fillInEntity(complex);
+            Entity entity = new Entity(complex);
+            List<PhysicalEntity> components = new ArrayList<>();
+            int count = 2 + random.nextInt(2);
+            for (int i = 0; i < count; i++) {
+                Entity component;
+                if (depth > 1 && random.nextBoolean()) component = createComplex(depth - 1);
+                else component = random.nextInt(4) == 0 ? createSmallMolecule() : createProtein();
+                components.add(component.pe);
+                entity.add(component);
+            }
+            complex.setHasComponent(components);
+            complex.setDisplayName("Complex of " + components.size() + " [" + complex.getCompartment().get(0).getDisplayName() + "]");
+            return entity;
+        }
+
+        private Entity createSet() {
+            DefinedSet set = init(new DefinedSet(), null);
+            fillInEntity(set);
+            Entity entity = new Entity(set);
+            List<PhysicalEntity> members = new ArrayList<>();
+            int count = 2 + random.nextInt(2);
+            for (int i = 0; i < count; i++) {
+                Entity member = createProtein();
+                members.add(member.pe);
+                entity.add(member);
+            }
+            set.setHasMember(members);
+            set.setDisplayName("Set of " + members.size() + " [" + set.getCompartment().get(0).getDisplayName() + "]");
+            return entity;
+        }
+
+        private void fillInEntity(PhysicalEntity pe) {
+            pe.setStId(STID_PREFIX + pe.getDbId());
+            pe.setCompartment(Collections.singletonList(compartments.get(random.nextInt(compartments.size()))));
+            pe.setSummation(summations());
+            pe.setLiteratureReference(literatureReferences());
+            pe.setInferredTo(new ArrayList<>());
+            pe.setInferredFrom(new ArrayList<>());
+        }
+
+        private void fillInEvent(Event event) {
+            event.setStId(STID_PREFIX + event.getDbId());
+            event.setCompartment(Collections.singletonList(compartments.get(random.nextInt(compartments.size()))));
+            event.setSummation(summations());
+            event.setLiteratureReference(literatureReferences());
+            event.setCreated(instanceEdit());
+            if (annotationDensity > 0) event.setModified(instanceEdit());
+            List<InstanceEdit> authored = new ArrayList<>();
+            List<InstanceEdit> revised = new ArrayList<>();
+            for (int i = 0; i < annotationDensity; i++) {
+                authored.add(instanceEdit());
+                if (i > 0) revised.add(instanceEdit());
+            }
+            event.setAuthored(authored);
+            event.setRevised(revised);
+            if (annotationDensity > 0) {
+                GO_BiologicalProcess go = init(new GO_BiologicalProcess(), "biological process");
+                go.setUrl("http://purl.obolibrary.org/obo/GO_" + (8000000 + random.nextInt(100000)));
+                event.setGoBiologicalProcess(go);
+            }
+        }
+
+        private List<Summation> summations() {
+            List<Summation> rtn = new ArrayList<>();
+            if (annotationDensity > 0) {
+                Summation summation = init(new Summation(), "summation");
+                summation.setText(text(150 * annotationDensity));
+                rtn.add(summation);
+            }
+            return rtn;
+        }
+
+        private List<Publication> literatureReferences() {
+            List<Publication> rtn = new ArrayList<>();
+            for (int i = 0; i < annotationDensity; i++) {
+                LiteratureReference lr = init(new LiteratureReference(), "Reference " + i);
+                lr.setPubMedIdentifier(1000000 + random.nextInt(30000000));
+                rtn.add(lr);
+            }
+            return rtn;
+        }
+
+        private InstanceEdit instanceEdit() {
+            Person person = persons.get(random.nextInt(persons.size()));
+            InstanceEdit ie = init(new InstanceEdit(), person.getDisplayName());
+            ie.setAuthor(Collections.singletonList(person));
+            ie.setDateTime(String.format("%d-%02d-%02d %02d:%02d:%02d", 2004 + random.nextInt(20), 1 + random.nextInt(12),
+                    1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60)));
+            return ie;
+        }
+
+        private List<String> urls(String prefix, int count) {
+            List<String> rtn = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) rtn.add(prefix + (100000 + random.nextInt(900000)));
+            return rtn;
+        }
+
+        private String text(int length) {
+            StringBuilder sb = new StringBuilder(length + 16);
+            while (sb.length() < length) sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            return sb.toString();
+        }
+
+        private <T extends DatabaseObject> T init(T object, String displayName) {
+            object.setDbId(++dbId);
+            object.setDisplayName(displayName);
+            return object;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.reactome.server.tools.sbml.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes every model to its own file in the output directory, optionally compressed with gzip.
+ * Each file is only written by one thread so no synchronisation is needed. Models are written to a temporary file
+ * that is then renamed, so an interrupted export never leaves a truncated model behind.
+ */
+public class DirectoryOutput implements SbmlOutput {
+
+    private static final String TMP_EXTENSION = ".tmp";
+
+    private final File folder;
+    private final boolean gzip;
+
+    public DirectoryOutput(File folder, boolean gzip) {
+        this.folder = folder;
+        this.gzip = gzip;
+    }
+
+    @Override
+    public void write(String fileName, ModelWriter writer) throws Exception {
+        File file = getFile(fileName);
+        File tmp = new File(folder, file.getName() + TMP_EXTENSION);
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+        try {
+            if (gzip) os = new GZIPOutputStream(os, 64 * 1024);
+            try (OutputStream out = os) {
+                writer.write(out);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    @Override
+    public boolean exists(String fileName) {
+        File file = getFile(fileName);
+        return file.isFile() && file.length() > 0;
+    }
+
+    @Override
+    public long checksum(String fileName) {
+        if (!exists(fileName)) return -1L;
+        CRC32 crc = new CRC32();
+        try (InputStream is = open(getFile(fileName));
+             CheckedInputStream cis = new CheckedInputStream(is, crc)) {
+            byte[] buffer = new byte[64 * 1024];
+            while (cis.read(buffer) >= 0) {
+                // Only the checksum is needed
+            }
+            return crc.getValue();
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    private InputStream open(File file) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        return gzip ? new GZIPInputStream(is, 64 * 1024) : is;
+    }
+
+    private File getFile(String fileName) {
+        return new File(folder, fileName + (gzip ? ".sbml.gz" : ".sbml"));
+    }
+
+    @Override
+    public void close() {
+        // Nothing to be closed, every file is closed once written
+    }
+}
@@ -0,0 +1,245 @@
+package org.reactome.server.tools.sbml.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Exports lists of pathways using a configurable number of workers. Every thread creates its own {@link Worker}
+ * (and so its own database connection and conversion state) the first time it is used and keeps it for the following
+ * lists (e.g. every species of a release), until the engine is closed. Each thread takes the next pending pathway
+ * until none is left. Completed pathways are reported to the listener in the same order they were provided, no
+ * matter in which order the workers finish them. An optional {@link Listener} is told when each worker takes and
+ * finishes a pathway.
+ */
+public class ExportEngine implements AutoCloseable {
+
+    private static Logger logger = LoggerFactory.getLogger("sbml-exporter");
+
+    /**
+     * Converts and writes one pathway at a time. Instances are never shared between threads.
+     */
+    public interface Worker {
+        /**
+         * @return false if the pathway could not be written (an exception means the same)
+         */
+        boolean export(String stId, SbmlOutput output) throws Exception;
+
+        void close();
+    }
+
+    @FunctionalInterface
+    public interface WorkerFactory {
+        Worker create() throws Exception;
+    }
+
+    /**
+     * Called from the worker threads as soon as they take or finish a pathway, in any order
+     */
+    public interface Listener {
+        void started(String stId);
+
+        void finished(String stId, boolean success);
+    }
+
+    private final int threads;
+    private final WorkerFactory workerFactory;
+    private final Listener listener;
+    // Threads are kept between exports so each one keeps its worker
+    private final ExecutorService executor;
+    private final ThreadLocal<Worker> worker = new ThreadLocal<>();
+    private final List<Worker> workers = new ArrayList<>();
+
+    public ExportEngine(int threads, WorkerFactory workerFactory) {
+        this(threads, workerFactory, null);
+    }
+
+    public ExportEngine(int threads, WorkerFactory workerFactory, Listener listener) {
+        this.threads = Math.max(1, threads);
+        this.workerFactory = workerFactory;
+        this.listener = listener;
+        this.executor = Executors.newFixedThreadPool(this.threads, new WorkerThreadFactory());
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Exports the given pathways and waits until all of them have been processed
+     *
+     * @param stIds     the pathways to be exported
+     * @param output    where the pathways are written
+     * @param completed receives the identifier and the number of processed pathways, following the order in stIds
+     * @return how many pathways were processed and how many of them failed. Pathways are not processed when no worker
+     * can be created or a worker thread stops unexpectedly
+     */
+    public Result export(List<String> stIds, SbmlOutput output, BiConsumer<String, Integer> completed) throws InterruptedException {
+        Result result = new Result(stIds.size());
+        if (stIds.isEmpty()) return result;
+        OrderedReporter reporter = new OrderedReporter(stIds, completed);
+        AtomicInteger next = new AtomicInteger(0);
+        int tasks = Math.min(threads, stIds.size());
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int w = 0; w < tasks; w++) {
+                futures.add(executor.submit(() -> run(stIds, output, next, reporter, result)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    logger.error(e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            // Nothing else is taken if this thread is interrupted
+            next.set(stIds.size());
+        }
+        return result;
+    }
+
+    private void run(List<String> stIds, SbmlOutput output, AtomicInteger next, OrderedReporter reporter, Result result) {
+        Worker worker = getWorker();
+        // Without a worker this thread cannot do anything, but the rest of the threads keep going
+        if (worker == null) return;
+        int index;
+        while (!Thread.currentThread().isInterrupted() && (index = next.getAndIncrement()) < stIds.size()) {
+            String stId = stIds.get(index);
+            if (listener != null) listener.started(stId);
+            boolean success = false;
+            try {
+                success = worker.export(stId, output);
+            } catch (Exception e) {
+                logger.error(String.format("Error exporting '%s'", stId), e);
+            }
+            if (listener != null) listener.finished(stId, success);
+            result.done(success);
+            reporter.done(index);
+        }
+    }
+
+    /**
+     * @return the worker of the current thread, created the first time, or null if it cannot be created (it is
+     * tried again by the next export)
+     */
+    private Worker getWorker() {
+        Worker rtn = worker.get();
+        if (rtn != null) return rtn;
+        try {
+            rtn = workerFactory.create();
+        } catch (Exception e) {
+            logger.error("Export worker could not be created: " + e.getMessage(), e);
+            return null;
+        }
+        worker.set(rtn);
+        synchronized (workers) {
+            workers.add(rtn);
+        }
+        return rtn;
+    }
+
+    /**
+     * Stops the threads and closes their workers
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (workers) {
+            for (Worker w : workers) w.close();
+            workers.clear();
+        }
+    }
+
+    /**
+     * Outcome of an export: pathways that were never taken by a worker are neither processed nor failed
+     */
+    public static class Result {
+        private final int total;
+        private final AtomicInteger processed = new AtomicInteger(0);
+        private final AtomicInteger failed = new AtomicInteger(0);
+
+        private Result(int total) {
+            this.total = total;
+        }
+
+        private void done(boolean success) {
+            processed.incrementAndGet();
+            if (!success) failed.incrementAndGet();
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getProcessed() {
+            return processed.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return true if every pathway was processed and none of them failed
+         */
+        public boolean isComplete() {
+            return processed.get() == total && failed.get() == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d pathways processed, %d failed", processed.get(), total, failed.get());
+        }
+    }
+
+    /**
+     * Keeps track of finished pathways and releases them to the listener following the original order
+     */
+    private static class OrderedReporter {
+        private final List<String> stIds;
+        private final BiConsumer<String, Integer> listener;
+        private final boolean[] finished;
+        private int nextToReport = 0;
+
+        OrderedReporter(List<String> stIds, BiConsumer<String, Integer> listener) {
+            this.stIds = stIds;
+            this.listener = listener;
+            this.finished = new boolean[stIds.size()];
+        }
+
+        synchronized void done(int index) {
+            finished[index] = true;
+            while (nextToReport < finished.length && finished[nextToReport]) {
+                String stId = stIds.get(nextToReport++);
+                if (listener != null) listener.accept(stId, nextToReport);
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "sbml-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
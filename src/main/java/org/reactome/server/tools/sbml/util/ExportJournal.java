@@ -0,0 +1,241 @@
+package org.reactome.server.tools.sbml.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the progress of an export in its output directory, so an interrupted export can be resumed (see
+ * {@link #resume(File)}) instead of starting over. Every pathway written is recorded with the CRC32 and the size of
+ * its SBML and every group of pathways (usually a species) with the moment it was completed, i.e. its output closed.
+ * <p>
+ * Lines are tab separated: "P", group, stable identifier, checksum (hex) and bytes for pathways; "G" and group for
+ * completed groups; "R" and group when a group is started again from scratch (archives are written anew), which
+ * discards the pathways recorded for it before. Records are appended in batches of {@link #BATCH_SIZE} (or every
+ * {@link #FLUSH_INTERVAL} seconds) and synced to disk, so at most the last batch is lost (and converted again) if
+ * the export dies. The whole journal is rewritten to a temporary file and renamed over the previous one when it is
+ * opened and when a group is completed, which also drops truncated lines and discarded pathways.
+ * It is shared by all the export threads.
+ */
+public class ExportJournal implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger("sbml-exporter");
+
+    public static final String FILE_NAME = "export-journal.tsv";
+    private static final String HEADER = "# type\tgroup\tstId\tchecksum\tbytes";
+    private static final int BATCH_SIZE = 100;
+    private static final long FLUSH_INTERVAL = 10;
+
+    private final File file;
+    // Pathway stId to its record, following the order they were written
+    private final Map<String, Entry> pathways = new LinkedHashMap<>();
+    private final Set<String> completed = new HashSet<>();
+    // The groups are exported one after the other
+    private String group;
+
+    private FileOutputStream out;
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingCount = 0;
+    private long lastFlush = System.nanoTime();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    private ExportJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Starts a new journal in the passed folder, discarding the previous one (if any)
+     */
+    public static ExportJournal create(File folder) throws IOException {
+        ExportJournal journal = new ExportJournal(new File(folder, FILE_NAME));
+        journal.compact();
+        return journal;
+    }
+
+    /**
+     * Reads the journal left by a previous export in the passed folder to continue it. A new one is started if there
+     * is none.
+     */
+    public static ExportJournal resume(File folder) throws IOException {
+        ExportJournal journal = new ExportJournal(new File(folder, FILE_NAME));
+        if (journal.file.isFile()) {
+            try (BufferedReader reader = Files.newBufferedReader(journal.file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) journal.read(line);
+            }
+            logger.info(String.format("Resuming from %s: %d pathways and %d groups completed", journal.file, journal.pathways.size(), journal.completed.size()));
+        }
+        journal.compact();
+        return journal;
+    }
+
+    private void read(String line) {
+        if (line.isEmpty() || line.startsWith("#")) return;
+        String[] tokens = line.split("\t", -1);
+        try {
+            switch (tokens[0]) {
+                case "P":
+                    // A truncated line (e.g. the export died while writing it) is not a record
+                    if (tokens.length != 5) return;
+                    pathways.put(tokens[2], new Entry(tokens[1], Long.parseLong(tokens[3], 16), Long.parseLong(tokens[4])));
+                    break;
+                case "G":
+                    if (tokens.length == 2) completed.add(tokens[1]);
+                    break;
+                case "R":
+                    if (tokens.length == 2) discard(tokens[1]);
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            // Truncated as well
+        }
+    }
+
+    /**
+     * Starts (or continues) a group of pathways. The pathways recorded from now on belong to it.
+     *
+     * @param fromScratch true if the output of the group is written anew, so its previous pathways are discarded
+     */
+    public synchronized void begin(String group, boolean fromScratch) throws IOException {
+        this.group = group;
+        completed.remove(group);
+        if (!fromScratch) return;
+        discard(group);
+        append("R\t" + group);
+        flush();
+    }
+
+    /**
+     * Records a pathway whose SBML has been completely written
+     */
+    public synchronized void record(String stId, long checksum, long bytes) throws IOException {
+        pathways.remove(stId);
+        pathways.put(stId, new Entry(group, checksum, bytes));
+        append(String.format("P\t%s\t%s\t%x\t%d", group, stId, checksum, bytes));
+        if (pendingCount >= BATCH_SIZE || System.nanoTime() - lastFlush > TimeUnit.SECONDS.toNanos(FLUSH_INTERVAL))
+            flush();
+    }
+
+    /**
+     * Records that all the pathways of the current group have been written and its output closed
+     */
+    public synchronized void complete() throws IOException {
+        completed.add(group);
+        compact();
+    }
+
+    public synchronized boolean isCompleted(String group) {
+        return completed.contains(group);
+    }
+
+    /**
+     * @return true if the pathway was recorded and the output still has the same content for it
+     */
+    public boolean isDone(String stId, SbmlOutput output) {
+        Entry entry;
+        synchronized (this) {
+            entry = pathways.get(stId);
+        }
+        boolean done = entry != null && entry.checksum == output.checksum(stId);
+        if (done) skipped.incrementAndGet();
+        return done;
+    }
+
+    /**
+     * @return the number of pathways found to be done so far
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Writes the pending records to disk
+     */
+    public synchronized void flush() throws IOException {
+        lastFlush = System.nanoTime();
+        if (pendingCount == 0) return;
+        out.write(pending.toString().getBytes(StandardCharsets.UTF_8));
+        out.getFD().sync();
+        pending.setLength(0);
+        pendingCount = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out == null) return;
+        try {
+            flush();
+        } finally {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void append(String line) {
+        pending.append(line).append('\n');
+        pendingCount++;
+    }
+
+    private void discard(String group) {
+        pathways.values().removeIf(entry -> entry.group.equals(group));
+    }
+
+    /**
+     * Rewrites the whole journal into a temporary file that replaces the current one, and keeps appending to it
+     */
+    private void compact() throws IOException {
+        if (out != null) out.close();
+        pending.setLength(0);
+        pendingCount = 0;
+        File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Entry> e : pathways.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(String.format("P\t%s\t%s\t%x\t%d", entry.group, e.getKey(), entry.checksum, entry.bytes));
+                writer.newLine();
+            }
+            for (String group : completed) {
+                writer.write("G\t" + group);
+                writer.newLine();
+            }
+            writer.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out = new FileOutputStream(file, true);
+        lastFlush = System.nanoTime();
+    }
+
+    private static class Entry {
+        private final String group;
+        private final long checksum;
+        private final long bytes;
+
+        private Entry(String group, long checksum, long bytes) {
+            this.group = group;
+            this.checksum = checksum;
+            this.bytes = bytes;
+        }
+    }
+}
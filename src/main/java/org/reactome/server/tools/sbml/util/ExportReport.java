@@ -0,0 +1,177 @@
+package org.reactome.server.tools.sbml.util;
+
+import org.reactome.server.tools.sbml.util.PathwayMetrics.Stage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Gathers the {@link PathwayMetrics} of every exported pathway (from any thread) so the time spent in each stage,
+ * the throughput and the slowest pathways of a run can be reported at the end. The report can be written as CSV
+ * (one row per pathway) and as JSON (totals, slowest pathways and one entry per pathway).
+ */
+public class ExportReport {
+
+    public static final String CSV_FILE = "export-report.csv";
+    public static final String JSON_FILE = "export-report.json";
+
+    private final long start = System.nanoTime();
+    private final List<PathwayMetrics> pathways = new ArrayList<>();
+
+    public synchronized void add(PathwayMetrics metrics) {
+        pathways.add(metrics);
+    }
+
+    public synchronized List<PathwayMetrics> getPathways() {
+        return new ArrayList<>(pathways);
+    }
+
+    /**
+     * @return the slowest pathways, the slowest first
+     */
+    public List<PathwayMetrics> getSlowest(int n) {
+        return getPathways().stream()
+                .sorted(Comparator.comparingLong(PathwayMetrics::getTotalNanos).reversed())
+                .limit(n)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return a human readable summary: time per stage, throughput and the slowest pathways
+     */
+    public String getSummary(int slowest) {
+        List<PathwayMetrics> pathways = getPathways();
+        long elapsed = System.nanoTime() - start;
+        long bytes = pathways.stream().mapToLong(PathwayMetrics::getBytes).sum();
+        long busy = pathways.stream().mapToLong(PathwayMetrics::getTotalNanos).sum();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Export report: %d pathways (%d failed), %s written, %.2f pathways/s, %.2f MB/s",
+                pathways.size(),
+                pathways.stream().filter(p -> !p.isSuccess()).count(),
+                formatBytes(bytes),
+                pathways.size() / seconds(elapsed),
+                bytes / (1024d * 1024d) / seconds(elapsed)));
+        for (Stage stage : Stage.values()) {
+            long nanos = pathways.stream().mapToLong(p -> p.getNanos(stage)).sum();
+            sb.append(String.format(Locale.ROOT, "%n\t%-10s %10d ms %5.1f%%", stage.getName(), toMillis(nanos), percent(nanos, busy)));
+        }
+        long other = pathways.stream().mapToLong(PathwayMetrics::getOtherNanos).sum();
+        sb.append(String.format(Locale.ROOT, "%n\t%-10s %10d ms %5.1f%%", "other", toMillis(other), percent(other, busy)));
+        List<PathwayMetrics> slowestPathways = getSlowest(slowest);
+        if (!slowestPathways.isEmpty()) sb.append(String.format("%nSlowest %d pathways:", slowestPathways.size()));
+        for (PathwayMetrics p : slowestPathways) {
+            sb.append(String.format(Locale.ROOT, "%n\t%s %d ms (%d species, %d reactions, %s)",
+                    p.getStId(), toMillis(p.getTotalNanos()), p.getSpecies(), p.getReactions(), formatBytes(p.getBytes())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the CSV and the JSON reports to the given folder
+     */
+    public void write(File folder, int slowest) throws IOException {
+        Files.createDirectories(folder.toPath());
+        writeCsv(new File(folder, CSV_FILE));
+        writeJson(new File(folder, JSON_FILE), slowest);
+    }
+
+    public void writeCsv(File file) throws IOException {
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            StringBuilder header = new StringBuilder("stId,success,total_ms");
+            for (Stage stage : Stage.values()) header.append(',').append(stage.getName()).append("_ms");
+            header.append(",other_ms,species,reactions,compartments,bytes");
+            pw.println(header);
+            for (PathwayMetrics p : getPathways()) {
+                StringBuilder row = new StringBuilder(p.getStId()).append(',').append(p.isSuccess()).append(',').append(toMillis(p.getTotalNanos()));
+                for (Stage stage : Stage.values()) row.append(',').append(toMillis(p.getNanos(stage)));
+                row.append(',').append(toMillis(p.getOtherNanos()))
+                        .append(',').append(p.getSpecies())
+                        .append(',').append(p.getReactions())
+                        .append(',').append(p.getCompartments())
+                        .append(',').append(p.getBytes());
+                pw.println(row);
+            }
+        }
+    }
+
+    public void writeJson(File file, int slowest) throws IOException {
+        List<PathwayMetrics> pathways = getPathways();
+        long elapsed = System.nanoTime() - start;
+        long bytes = pathways.stream().mapToLong(PathwayMetrics::getBytes).sum();
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            pw.println("{");
+            pw.println(String.format(Locale.ROOT, "  \"elapsed_ms\": %d,", toMillis(elapsed)));
+            pw.println(String.format(Locale.ROOT, "  \"pathways\": %d,", pathways.size()));
+            pw.println(String.format(Locale.ROOT, "  \"failed\": %d,", pathways.stream().filter(p -> !p.isSuccess()).count()));
+            pw.println(String.format(Locale.ROOT, "  \"bytes\": %d,", bytes));
+            pw.println(String.format(Locale.ROOT, "  \"pathways_per_second\": %.3f,", pathways.size() / seconds(elapsed)));
+            pw.println(String.format(Locale.ROOT, "  \"bytes_per_second\": %.1f,", bytes / seconds(elapsed)));
+            StringBuilder stages = new StringBuilder("  \"stages_ms\": {");
+            for (Stage stage : Stage.values()) {
+                stages.append('"').append(stage.getName()).append("\": ")
+                        .append(toMillis(pathways.stream().mapToLong(p -> p.getNanos(stage)).sum())).append(", ");
+            }
+            stages.append("\"other\": ").append(toMillis(pathways.stream().mapToLong(PathwayMetrics::getOtherNanos).sum())).append("},");
+            pw.println(stages);
+            pw.println("  \"slowest\": [" + getSlowest(slowest).stream().map(p -> quote(p.getStId())).collect(Collectors.joining(", ")) + "],");
+            pw.println("  \"details\": [");
+            for (int i = 0; i < pathways.size(); i++) {
+                pw.print("    " + toJson(pathways.get(i)));
+                pw.println(i < pathways.size() - 1 ? "," : "");
+            }
+            pw.println("  ]");
+            pw.println("}");
+        }
+    }
+
+    private static String toJson(PathwayMetrics p) {
+        StringBuilder sb = new StringBuilder("{\"stId\": ").append(quote(p.getStId()))
+                .append(", \"success\": ").append(p.isSuccess())
+                .append(", \"total_ms\": ").append(toMillis(p.getTotalNanos()));
+        for (Stage stage : Stage.values()) sb.append(", \"").append(stage.getName()).append("_ms\": ").append(toMillis(p.getNanos(stage)));
+        return sb.append(", \"other_ms\": ").append(toMillis(p.getOtherNanos()))
+                .append(", \"species\": ").append(p.getSpecies())
+                .append(", \"reactions\": ").append(p.getReactions())
+                .append(", \"compartments\": ").append(p.getCompartments())
+                .append(", \"bytes\": ").append(p.getBytes())
+                .append('}').toString();
+    }
+
+    static String quote(String value) {
+        if (value == null) return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static double seconds(long nanos) {
+        return Math.max(nanos, 1L) / 1e9;
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0L ? 0d : 100d * part / total;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024d);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024d * 1024d));
+    }
+}
@@ -0,0 +1,296 @@
+package org.reactome.server.tools.sbml.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of a running export: the pathway each worker is converting, the pathways waiting for a worker, the
+ * throughput, the estimated time left, the heap and the statistics of the caches. It is fed by the
+ * {@link ExportEngine} workers and can be read at the same time from the console line (verbose mode), JMX
+ * ({@link ExportStatusMXBean}) and the {@link StatusServer}.
+ * <p>
+ * The estimated time left uses the rate of the last {@link #WINDOW} pathways finished, so it follows the changes of
+ * pace between small and big pathways better than the overall rate.
+ */
+public class ExportStatus implements ExportStatusMXBean, ExportEngine.Listener {
+
+    private static Logger logger = LoggerFactory.getLogger("sbml-exporter");
+
+    public static final String OBJECT_NAME = "org.reactome.server.tools.sbml:type=ExportStatus";
+
+    private static final int WINDOW = 50;
+    private static final int WIDTH = 50;
+
+    private final long start = System.nanoTime();
+    private volatile String species = "";
+    private volatile int total = 0;
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final AtomicInteger done = new AtomicInteger(0);
+    private final AtomicInteger failed = new AtomicInteger(0);
+    private final AtomicInteger allDone = new AtomicInteger(0);
+
+    // Worker name to the pathway it is converting
+    private final Map<String, Current> current = new ConcurrentHashMap<>();
+    // Times at which the last pathways finished, as a ring
+    private final long[] finished = new long[WINDOW];
+    private int finishedCount = 0;
+
+    private final Map<String, Supplier<String>> caches = new LinkedHashMap<>();
+
+    private ScheduledExecutorService console;
+
+    /**
+     * Adds a cache to the reported statistics
+     */
+    public synchronized void addCache(String name, Supplier<String> statistics) {
+        caches.put(name, statistics);
+    }
+
+    /**
+     * Starts the export of a new group of pathways (usually a species)
+     */
+    public synchronized void begin(String species, int total) {
+        this.species = species;
+        this.total = total;
+        queued.set(total);
+        done.set(0);
+        failed.set(0);
+    }
+
+    /**
+     * Ends the export of the current group of pathways
+     */
+    public synchronized void end() {
+        queued.set(0);
+        current.clear();
+        if (console != null) {
+            print();
+            System.out.println();
+        }
+    }
+
+    @Override
+    public void started(String stId) {
+        queued.decrementAndGet();
+        current.put(Thread.currentThread().getName(), new Current(stId));
+    }
+
+    @Override
+    public void finished(String stId, boolean success) {
+        current.remove(Thread.currentThread().getName());
+        if (!success) failed.incrementAndGet();
+        done.incrementAndGet();
+        allDone.incrementAndGet();
+        synchronized (finished) {
+            finished[finishedCount++ % WINDOW] = System.nanoTime();
+        }
+    }
+
+    /**
+     * Registers this status in the platform MBean server
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.warn("The export status cannot be registered as " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Prints the status to the command line twice a second until {@link #stopConsole()}
+     */
+    public synchronized void startConsole() {
+        if (console != null) return;
+        console = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sbml-status");
+            thread.setDaemon(true);
+            return thread;
+        });
+        console.scheduleAtFixedRate(this::print, 250, 500, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopConsole() {
+        if (console == null) return;
+        console.shutdownNow();
+        console = null;
+    }
+
+    private synchronized void print() {
+        int total = this.total;
+        int done = Math.min(this.done.get(), total);
+        double percent = total == 0 ? 1d : (double) done / total;
+        StringBuilder progress = new StringBuilder(WIDTH + 2).append('|');
+        int i = 0;
+        for (; i < (int) (percent * WIDTH); i++) progress.append('=');
+        for (; i < WIDTH; i++) progress.append(' ');
+        progress.append('|');
+        long eta = getEtaSeconds();
+        System.out.printf(Locale.ROOT, "\r%-30s%s %3d%% %s %d/%d %d active %.1f/s ETA %s   ",
+                species, Utils.getTimeFormatted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)),
+                (int) (percent * 100), progress, done, total, current.size(), getRecentPathwaysPerSecond(),
+                eta < 0 ? "--:--:--" : Utils.getTimeFormatted(TimeUnit.SECONDS.toMillis(eta)));
+    }
+
+    @Override
+    public String getSpecies() {
+        return species;
+    }
+
+    @Override
+    public int getTotal() {
+        return total;
+    }
+
+    @Override
+    public int getDone() {
+        return done.get();
+    }
+
+    @Override
+    public int getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public int getQueued() {
+        return Math.max(0, queued.get());
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return current.size();
+    }
+
+    @Override
+    public Map<String, String> getCurrentPathways() {
+        Map<String, String> rtn = new TreeMap<>();
+        long now = System.nanoTime();
+        for (Map.Entry<String, Current> entry : current.entrySet()) {
+            Current c = entry.getValue();
+            rtn.put(entry.getKey(), String.format("%s (%d s)", c.stId, TimeUnit.NANOSECONDS.toSeconds(now - c.start)));
+        }
+        return rtn;
+    }
+
+    @Override
+    public double getPathwaysPerSecond() {
+        return allDone.get() / Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+    }
+
+    @Override
+    public double getRecentPathwaysPerSecond() {
+        synchronized (finished) {
+            int n = Math.min(finishedCount, WINDOW);
+            if (n < 2) return getPathwaysPerSecond();
+            long first = finished[(finishedCount - n) % WINDOW];
+            // Measured until now, so the rate drops while nothing finishes
+            return (n - 1) / (Math.max(1L, System.nanoTime() - first) / 1e9);
+        }
+    }
+
+    @Override
+    public long getEtaSeconds() {
+        double rate = getRecentPathwaysPerSecond();
+        if (done.get() == 0 || rate <= 0) return -1L;
+        int remaining = Math.max(0, total - done.get());
+        return (long) Math.ceil(remaining / rate);
+    }
+
+    @Override
+    public long getHeapUsed() {
+        return getHeap().getUsed();
+    }
+
+    @Override
+    public long getHeapMax() {
+        MemoryUsage heap = getHeap();
+        return heap.getMax() < 0 ? heap.getCommitted() : heap.getMax();
+    }
+
+    @Override
+    public synchronized Map<String, String> getCacheStatistics() {
+        Map<String, String> rtn = new LinkedHashMap<>();
+        for (Map.Entry<String, Supplier<String>> entry : caches.entrySet()) {
+            rtn.put(entry.getKey(), entry.getValue().get());
+        }
+        return rtn;
+    }
+
+    @Override
+    public String getStatus() {
+        StringBuilder sb = new StringBuilder();
+        long eta = getEtaSeconds();
+        sb.append(String.format(Locale.ROOT, "%s: %d of %d pathways done (%d failed), %d queued%n", species, getDone(), getTotal(), getFailed(), getQueued()));
+        sb.append(String.format(Locale.ROOT, "Throughput: %.2f pathways/s (%.2f recently), ETA %s%n", getPathwaysPerSecond(), getRecentPathwaysPerSecond(),
+                eta < 0 ? "unknown" : Utils.getTimeFormatted(TimeUnit.SECONDS.toMillis(eta))));
+        sb.append(String.format(Locale.ROOT, "Heap: %d MB used of %d MB%n", getHeapUsed() >> 20, getHeapMax() >> 20));
+        Map<String, String> pathways = getCurrentPathways();
+        sb.append(String.format("Active workers: %d%n", pathways.size()));
+        for (Map.Entry<String, String> entry : pathways.entrySet()) {
+            sb.append(String.format("\t%s: %s%n", entry.getKey(), entry.getValue()));
+        }
+        sb.append(String.format("Caches:%n"));
+        for (Map.Entry<String, String> entry : getCacheStatistics().entrySet()) {
+            sb.append(String.format("\t%s: %s%n", entry.getKey(), entry.getValue()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the status as a JSON object
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"species\": ").append(ExportReport.quote(getSpecies()))
+                .append(", \"total\": ").append(getTotal())
+                .append(", \"done\": ").append(getDone())
+                .append(", \"failed\": ").append(getFailed())
+                .append(", \"queued\": ").append(getQueued())
+                .append(", \"active_workers\": ").append(getActiveWorkers())
+                .append(String.format(Locale.ROOT, ", \"pathways_per_second\": %.3f", getPathwaysPerSecond()))
+                .append(String.format(Locale.ROOT, ", \"recent_pathways_per_second\": %.3f", getRecentPathwaysPerSecond()))
+                .append(", \"eta_seconds\": ").append(getEtaSeconds())
+                .append(", \"heap_used\": ").append(getHeapUsed())
+                .append(", \"heap_max\": ").append(getHeapMax())
+                .append(", \"current\": ").append(toJson(getCurrentPathways()))
+                .append(", \"caches\": ").append(toJson(getCacheStatistics()));
+        return sb.append('}').toString();
+    }
+
+    private static String toJson(Map<String, String> map) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(ExportReport.quote(entry.getKey())).append(": ").append(ExportReport.quote(entry.getValue()));
+        }
+        return sb.append('}').toString();
+    }
+
+    private static MemoryUsage getHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    }
+
+    private static class Current {
+        final String stId;
+        final long start = System.nanoTime();
+
+        Current(String stId) {
+            this.stId = stId;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.reactome.server.tools.sbml.util;
+
+import java.util.Map;
+
+/**
+ * Live status of a running export, registered in the platform MBean server so it can be followed with any JMX
+ * client (jconsole, jmxterm...) while the exporter runs, e.g. on nodes without a terminal.
+ */
+public interface ExportStatusMXBean {
+
+    /**
+     * @return the species (or group of pathways) being exported
+     */
+    String getSpecies();
+
+    int getTotal();
+
+    int getDone();
+
+    int getFailed();
+
+    /**
+     * @return the pathways not taken by any worker yet
+     */
+    int getQueued();
+
+    int getActiveWorkers();
+
+    /**
+     * @return worker name to the pathway it is converting and for how long
+     */
+    Map<String, String> getCurrentPathways();
+
+    /**
+     * @return pathways per second since the export started
+     */
+    double getPathwaysPerSecond();
+
+    /**
+     * @return pathways per second over the last pathways finished
+     */
+    double getRecentPathwaysPerSecond();
+
+    /**
+     * @return the seconds needed by the remaining pathways at the recent rate, or -1 if it is not known yet
+     */
+    long getEtaSeconds();
+
+    long getHeapUsed();
+
+    long getHeapMax();
+
+    /**
+     * @return cache name to its statistics
+     */
+    Map<String, String> getCacheStatistics();
+
+    /**
+     * @return all of the above as text
+     */
+    String getStatus();
+}
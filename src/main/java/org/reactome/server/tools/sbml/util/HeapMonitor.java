@@ -0,0 +1,86 @@
+package org.reactome.server.tools.sbml.util;
+
+import com.sun.management.GarbageCollectorMXBean;
+import com.sun.management.GcInfo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tells when the heap is getting full so caches can release memory before the export runs out of it. The occupancy
+ * is taken right after the last collection when the JVM reports it, since the heap used at any given time includes
+ * garbage and would trigger evictions that free nothing.
+ */
+public class HeapMonitor {
+
+    public static final double DEFAULT_THRESHOLD = 0.8;
+
+    private static volatile double threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * @param threshold the fraction of the heap (0 to 1) above which caches should release memory
+     */
+    public static void setThreshold(double threshold) {
+        if (threshold <= 0 || threshold > 1)
+            throw new IllegalArgumentException("The heap threshold must be between 0 and 1: " + threshold);
+        HeapMonitor.threshold = threshold;
+    }
+
+    public static double getThreshold() {
+        return threshold;
+    }
+
+    public static boolean isAboveThreshold() {
+        return getOccupancy() > threshold;
+    }
+
+    /**
+     * @return the fraction of the heap in use (0 to 1)
+     */
+    public static double getOccupancy() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        if (max <= 0) return 0d;
+        long used = getUsedAfterLastGc();
+        return (double) (used < 0 ? heap.getUsed() : used) / max;
+    }
+
+    /**
+     * @return the number of collections so far. The occupancy only changes after a collection, so a cache that has
+     * already released memory does not need to do it again until this number changes.
+     */
+    public static long getCollections() {
+        long rtn = 0L;
+        for (java.lang.management.GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            rtn += Math.max(0L, gc.getCollectionCount());
+        }
+        return rtn;
+    }
+
+    /**
+     * @return the heap used right after the last collection or -1 if there has not been any or it is not reported
+     */
+    private static long getUsedAfterLastGc() {
+        Set<String> heapPools = new HashSet<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) heapPools.add(pool.getName());
+        }
+        GcInfo last = null;
+        for (java.lang.management.GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof GarbageCollectorMXBean)) continue;
+            GcInfo info = ((GarbageCollectorMXBean) gc).getLastGcInfo();
+            if (info != null && (last == null || info.getEndTime() > last.getEndTime())) last = info;
+        }
+        if (last == null) return -1L;
+        long used = 0L;
+        for (Map.Entry<String, MemoryUsage> entry : last.getMemoryUsageAfterGc().entrySet()) {
+            if (heapPools.contains(entry.getKey())) used += entry.getValue().getUsed();
+        }
+        return used;
+    }
+}
@@ -0,0 +1,85 @@
+package org.reactome.server.tools.sbml.util;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs using open addressing, so checking and adding keys does not create any object. It is not
+ * thread-safe and it is meant to be used by a single conversion.
+ */
+public class LongHashSet {
+
+    private static final int MIN_CAPACITY = 64;
+
+    // 0 marks a free slot, so the key 0 is kept apart
+    private long[] keys;
+    private boolean containsZero = false;
+    private int size = 0;
+
+    public LongHashSet() {
+        this.keys = new long[MIN_CAPACITY];
+    }
+
+    /**
+     * @return true if the key was not in the set
+     */
+    public boolean add(long key) {
+        if (key == 0L) {
+            if (containsZero) return false;
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int slot = findSlot(keys, key);
+        if (keys[slot] == key) return false;
+        keys[slot] = key;
+        // Kept at most half full
+        if (++size * 2 > keys.length) rehash(keys.length * 2);
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0L) return containsZero;
+        return keys[findSlot(keys, key)] == key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (keys.length > MIN_CAPACITY) keys = new long[MIN_CAPACITY];
+        else Arrays.fill(keys, 0L);
+        containsZero = false;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] rehashed = new long[capacity];
+        for (long key : keys) {
+            if (key != 0L) rehashed[findSlot(rehashed, key)] = key;
+        }
+        keys = rehashed;
+    }
+
+    /**
+     * @return the slot holding the key or the free slot where it goes
+     */
+    private static int findSlot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0L && keys[slot] != key) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static int hash(long key) {
+        // Spreads the bits of packed keys (see MurmurHash3 fmix64)
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
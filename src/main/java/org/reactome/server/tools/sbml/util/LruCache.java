@@ -0,0 +1,162 @@
+package org.reactome.server.tools.sbml.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe, size-bounded cache that evicts the least recently used entries first. Keeps hit, miss and eviction
+ * counters so the benefit of each cache can be reported at the end of an export.
+ * <p>
+ * Entries are spread by the hash of their key over {@link #SEGMENTS} segments, each one with its own lock and its
+ * share of the maximum size, so the export threads only wait for each other when they use the same segment. The
+ * least recently used entry is therefore evicted per segment and not across the whole cache.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruCache<K, V> {
+
+    static final int SEGMENTS = 16;
+
+    private final String name;
+    private final int maxSize;
+    private final Segment<K, V>[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public LruCache(String name, int maxSize) {
+        this.name = name;
+        this.maxSize = maxSize;
+        // Every segment keeps at least one entry, so small caches have fewer segments
+        int count = Math.max(1, Math.min(SEGMENTS, maxSize));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(maxSize / count + (i < maxSize % count ? 1 : 0), evictions);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private Segment<K, V> segment(Object key) {
+        int h = key.hashCode();
+        return segments[Math.floorMod(h ^ (h >>> 16), segments.length)];
+    }
+
+    public V get(K key) {
+        V value = peek(key);
+        if (value == null) misses.increment();
+        else hits.increment();
+        return value;
+    }
+
+    /**
+     * Same as {@link #get(Object)} but without updating the hit and miss counters
+     */
+    public V peek(K key) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * @return the value already kept for the key if there is one, otherwise the provided value
+     */
+    public V putIfAbsent(K key, V value) {
+        Segment<K, V> segment = segment(key);
+        V current;
+        synchronized (segment) {
+            current = segment.putIfAbsent(key, value);
+        }
+        return current == null ? value : current;
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public V remove(K key) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0d : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d entries (max %d), %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                name, size(), maxSize, getHits(), getMisses(), getHitRate() * 100, getEvictions());
+    }
+
+    /**
+     * Entries of one segment in access order. It is only used while holding its own lock.
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private final int maxSize;
+        private final LongAdder evictions;
+
+        Segment(int maxSize, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.reactome.server.tools.sbml.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Time spent in each stage of the export of a pathway, together with the number of elements created and the bytes
+ * written. Stages can be nested (e.g. the conversion of the instances while the data is fetched) and the time is
+ * always added to the innermost one, so the stage times never overlap and add up to the measured time.
+ * It is used by a single thread: the one converting the pathway.
+ */
+public class PathwayMetrics {
+
+    public enum Stage {
+        /** Loading the data from the database */
+        FETCH,
+        /** Converting the loaded instances into model objects */
+        CONVERT,
+        /** Creating the JSBML model */
+        BUILD,
+        /** Fetching, validating and adding the diagram layout */
+        LAYOUT,
+        /** Writing the SBML */
+        SERIALIZE,
+        /** Sending the SBML to the output (files or archives) */
+        WRITE;
+
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final String stId;
+    private final long start = System.nanoTime();
+    private long end = 0L;
+    private final long[] nanos = new long[Stage.values().length];
+    private Stage[] running = new Stage[4];
+    private int depth = 0;
+    private long last;
+
+    private int species = 0;
+    private int reactions = 0;
+    private int compartments = 0;
+    private long bytes = 0L;
+    private final CRC32 checksum = new CRC32();
+    private boolean success = true;
+
+    public PathwayMetrics(String stId) {
+        this.stId = stId;
+    }
+
+    public void start(Stage stage) {
+        long now = System.nanoTime();
+        if (depth > 0) nanos[running[depth - 1].ordinal()] += now - last;
+        if (depth == running.length) running = Arrays.copyOf(running, depth * 2);
+        running[depth++] = stage;
+        last = now;
+    }
+
+    /**
+     * Stops the last started stage
+     */
+    public void stop() {
+        if (depth == 0) return;
+        long now = System.nanoTime();
+        nanos[running[--depth].ordinal()] += now - last;
+        last = now;
+    }
+
+    public void time(Stage stage, Runnable runnable) {
+        start(stage);
+        try {
+            runnable.run();
+        } finally {
+            stop();
+        }
+    }
+
+    public <T> T time(Stage stage, Supplier<T> supplier) {
+        start(stage);
+        try {
+            return supplier.get();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * @return a stream adding the bytes written through it to these metrics and to their checksum
+     */
+    public OutputStream count(OutputStream os) {
+        return new FilterOutputStream(os) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                checksum.update(b);
+                bytes++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                checksum.update(b, off, len);
+                bytes += len;
+            }
+        };
+    }
+
+    /**
+     * Sets the end of the export of the pathway
+     */
+    public void finish(boolean success) {
+        while (depth > 0) stop();
+        this.end = System.nanoTime();
+        this.success = success;
+    }
+
+    public void addSpecies() {
+        species++;
+    }
+
+    public void addReaction() {
+        reactions++;
+    }
+
+    public void addCompartment() {
+        compartments++;
+    }
+
+    public String getStId() {
+        return stId;
+    }
+
+    public long getTotalNanos() {
+        return (end == 0L ? System.nanoTime() : end) - start;
+    }
+
+    public long getNanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    /**
+     * @return the time not spent in any of the stages (e.g. creating the converter)
+     */
+    public long getOtherNanos() {
+        long rtn = getTotalNanos();
+        for (long n : nanos) rtn -= n;
+        return Math.max(0L, rtn);
+    }
+
+    public int getSpecies() {
+        return species;
+    }
+
+    public int getReactions() {
+        return reactions;
+    }
+
+    public int getCompartments() {
+        return compartments;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the CRC32 of the bytes written (the SBML before any compression)
+     */
+    public long getChecksum() {
+        return checksum.getValue();
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+}
@@ -0,0 +1,107 @@
+package org.reactome.server.tools.sbml.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destination of the converted SBML models. Implementations are shared by all the export threads so
+ * {@link #write(String, ModelWriter)} has to be thread-safe.
+ */
+public interface SbmlOutput extends Closeable {
+
+    /**
+     * Writes the content of one model (e.g. the SBMLDocument or the streamed conversion)
+     */
+    @FunctionalInterface
+    interface ModelWriter {
+        void write(OutputStream os) throws Exception;
+    }
+
+    enum Format {
+        SBML("sbml"),       // One .sbml file per pathway
+        GZIP("gzip"),       // One .sbml.gz file per pathway
+        ZIP("zip"),         // One .zip archive per species
+        TGZ("tgz");         // One .tgz (gzipped tar) archive per species
+
+        private final String name;
+
+        Format(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isArchive() {
+            return this == ZIP || this == TGZ;
+        }
+
+        public static Format parse(String name) {
+            for (Format format : values()) {
+                if (format.name.equalsIgnoreCase(name)) return format;
+            }
+            throw new IllegalArgumentException(String.format("'%s' is not a valid output format. Please use 'sbml', 'gzip', 'zip' or 'tgz'", name));
+        }
+    }
+
+    /**
+     * @param fileName the file name of the model without extension (usually the pathway stable identifier)
+     */
+    void write(String fileName, ModelWriter writer) throws Exception;
+
+    /**
+     * @param fileName the file name of the model without extension
+     * @return true if the model was written to this output by a previous export and is still there
+     */
+    default boolean exists(String fileName) {
+        return false;
+    }
+
+    /**
+     * @param fileName the file name of the model without extension
+     * @return the CRC32 of the model content (before any compression) written to this output by a previous export,
+     * or -1 if it is not there or it cannot be read back
+     */
+    default long checksum(String fileName) {
+        return -1L;
+    }
+
+    /**
+     * Opens the output for a set of pathways
+     *
+     * @param format          how the models are stored
+     * @param outputDirectory where the files or the archive are created
+     * @param archiveName     the name of the archive (e.g. the species) for archive formats, ignored otherwise
+     */
+    static SbmlOutput open(Format format, String outputDirectory, String archiveName) throws IOException {
+        File folder = new File(outputDirectory);
+        switch (format) {
+            case ZIP:
+                return new ZipArchiveOutput(getArchive(format, outputDirectory, archiveName));
+            case TGZ:
+                return new TgzArchiveOutput(getArchive(format, outputDirectory, archiveName));
+            case GZIP:
+                return new DirectoryOutput(folder, true);
+            default:
+                return new DirectoryOutput(folder, false);
+        }
+    }
+
+    /**
+     * @return the archive file used by {@link #open(Format, String, String)} or null if the format is not an archive
+     */
+    static File getArchive(Format format, String outputDirectory, String archiveName) {
+        String archive = archiveName.toLowerCase().replaceAll("[^a-z0-9]+", "_") + ".3.1.sbml";
+        switch (format) {
+            case ZIP:
+                return new File(outputDirectory, archive + ".zip");
+            case TGZ:
+                return new File(outputDirectory, archive + ".tgz");
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.reactome.server.tools.sbml.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Keeps the content written to it in memory up to a threshold and moves it to a temporary file beyond that, so an
+ * archive entry can be prepared by an export thread without holding large models in the heap. Once closed, the
+ * content is read with {@link #getInputStream()} and the temporary file (if any) removed with {@link #delete()}.
+ */
+class SpoolOutputStream extends OutputStream {
+
+    static final int DEFAULT_THRESHOLD = 4 * 1024 * 1024;
+
+    private final int threshold;
+    private final File folder;
+
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream(64 * 1024);
+    private File file = null;
+    private OutputStream out;
+    private long size = 0L;
+
+    /**
+     * @param folder where the temporary file is created (e.g. the one of the archive, so it uses the same disk)
+     */
+    SpoolOutputStream(File folder, int threshold) {
+        this.folder = folder;
+        this.threshold = threshold;
+        this.out = memory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        spill(1);
+        out.write(b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        spill(len);
+        out.write(b, off, len);
+        size += len;
+    }
+
+    private void spill(int len) throws IOException {
+        if (file != null || size + len <= threshold) return;
+        file = File.createTempFile("sbml-", ".spool", folder);
+        out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        memory.writeTo(out);
+        memory = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the content written, once the stream has been closed
+     */
+    InputStream getInputStream() throws IOException {
+        if (file == null) return new ByteArrayInputStream(memory.toByteArray());
+        return new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+    }
+
+    /**
+     * Releases the content, removing the temporary file if it was created
+     */
+    void delete() throws IOException {
+        memory = null;
+        if (file != null) Files.deleteIfExists(file.toPath());
+    }
+}
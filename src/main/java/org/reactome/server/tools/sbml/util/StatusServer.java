@@ -0,0 +1,61 @@
+package org.reactome.server.tools.sbml.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the {@link ExportStatus} of a running export on the loopback interface: as text in "/" and as JSON in
+ * "/status.json". It only answers local requests, so it can be checked on a batch node (e.g. with curl) without
+ * opening the exporter to the network.
+ */
+public class StatusServer implements AutoCloseable {
+
+    private static Logger logger = LoggerFactory.getLogger("sbml-exporter");
+
+    private final HttpServer server;
+
+    public StatusServer(ExportStatus status, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/status.json", exchange -> send(exchange, "application/json", status.toJson()));
+        server.createContext("/", exchange -> send(exchange, "text/plain", status.getStatus()));
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "sbml-status-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        // The dispatcher thread of the server takes the daemon status of the thread starting it, so it is started
+        // from a daemon thread and never keeps the JVM alive if the export ends without closing the server
+        Thread starter = new Thread(server::start, "sbml-status-server-start");
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info(String.format("Export status available at http://%s:%d/", server.getAddress().getHostString(), server.getAddress().getPort()));
+    }
+
+    private static void send(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,62 @@
+package org.reactome.server.tools.sbml.util;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+/**
+ * Adds every model to a gzipped tar archive (.tgz). Tar entries need their size beforehand so the model is written
+ * by the calling thread into a {@link SpoolOutputStream} (a temporary file for the large ones) and then copied to
+ * the archive. The gzip stream covers the whole archive so copying (and compressing) is serialised between the
+ * export threads.
+ */
+public class TgzArchiveOutput implements SbmlOutput {
+
+    private final TarArchiveOutputStream tar;
+    private final File folder;
+
+    public TgzArchiveOutput(File file) throws IOException {
+        this.tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(new BufferedOutputStream(new FileOutputStream(file))));
+        this.tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        this.folder = file.getAbsoluteFile().getParentFile();
+    }
+
+    @Override
+    public void write(String fileName, ModelWriter writer) throws Exception {
+        SpoolOutputStream content = new SpoolOutputStream(folder, SpoolOutputStream.DEFAULT_THRESHOLD);
+        try {
+            try (SpoolOutputStream os = content) {
+                writer.write(os);
+            }
+
+            TarArchiveEntry entry = new TarArchiveEntry(fileName + ".sbml");
+            entry.setSize(content.getSize());
+            entry.setModTime(new Date());
+            try (InputStream is = content.getInputStream()) {
+                byte[] buffer = new byte[64 * 1024];
+                synchronized (tar) {
+                    tar.putArchiveEntry(entry);
+                    int n;
+                    while ((n = is.read(buffer)) >= 0) tar.write(buffer, 0, n);
+                    tar.closeArchiveEntry();
+                }
+            }
+        } finally {
+            content.delete();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (tar) {
+            tar.close();
+        }
+    }
+}
@@ -7,13 +7,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.OutputStream;
 import java.util.concurrent.TimeUnit;
 
 public class Utils {
 
     private static Logger logger = LoggerFactory.getLogger("sbml-exporter");
 
-    private static SBMLWriter writer = new TidySBMLWriter();
+    // Files are written from several export threads and the writers keep state while serialising
+    private static ThreadLocal<SBMLWriter> writer = ThreadLocal.withInitial(TidySBMLWriter::new);
 
     public static void outputCheck(String output){
         File folder = new File(output);
@@ -27,12 +29,16 @@ public class Utils {
     public static void writeSBML(String outputDirectory, String fileName, SBMLDocument sbmlDocument){
         try {
             File sbmlFile = new File(outputDirectory + File.separator + fileName + ".sbml");
-            writer.write(sbmlDocument, sbmlFile);
+            writer.get().write(sbmlDocument, sbmlFile);
         } catch (Exception e) {
             logger.error(String.format("Error writing SBML file for '%s'", sbmlDocument.getModel().getId()), e);
         }
     }
 
+    public static void writeSBML(OutputStream os, SBMLDocument sbmlDocument) throws Exception {
+        writer.get().write(sbmlDocument, os);
+    }
+
     public static String getTimeFormatted(Long millis) {
         return String.format("%02d:%02d:%02d", TimeUnit.MILLISECONDS.toHours(millis),
                 TimeUnit.MILLISECONDS.toMinutes(millis) % TimeUnit.HOURS.toMinutes(1),
@@ -0,0 +1,66 @@
+package org.reactome.server.tools.sbml.util;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Adds every model to a zip archive. The model is written and deflated by the calling thread into a
+ * {@link SpoolOutputStream} (a temporary file for the large ones), so only copying the already compressed entry to
+ * the archive is serialised between the export threads and the uncompressed model is never kept.
+ */
+public class ZipArchiveOutput implements SbmlOutput {
+
+    private final ZipArchiveOutputStream zip;
+    private final File folder;
+
+    public ZipArchiveOutput(File file) throws IOException {
+        this.zip = new ZipArchiveOutputStream(file);
+        this.folder = file.getAbsoluteFile().getParentFile();
+    }
+
+    @Override
+    public void write(String fileName, ModelWriter writer) throws Exception {
+        SpoolOutputStream compressed = new SpoolOutputStream(folder, SpoolOutputStream.DEFAULT_THRESHOLD);
+        try {
+            CRC32 crc = new CRC32();
+            long size;
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try (CheckedOutputStream os = new CheckedOutputStream(new DeflaterOutputStream(compressed, deflater, 64 * 1024), crc)) {
+                writer.write(os);
+            } finally {
+                size = deflater.getBytesRead();
+                deflater.end();
+            }
+
+            ZipArchiveEntry entry = new ZipArchiveEntry(fileName + ".sbml");
+            entry.setMethod(ZipEntry.DEFLATED);
+            entry.setTime(System.currentTimeMillis());
+            entry.setSize(size);
+            entry.setCompressedSize(compressed.getSize());
+            entry.setCrc(crc.getValue());
+            try (InputStream is = compressed.getInputStream()) {
+                synchronized (zip) {
+                    zip.addRawArchiveEntry(entry, is);
+                }
+            }
+        } finally {
+            compressed.delete();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (zip) {
+            zip.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.reactome.server.tools.sbml.converter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * {@link NotesSanitizer} has to give exactly the same result as the chain of regular expressions it replaced.
+ */
+class NotesSanitizerTest {
+
+    private static final String[] CASES = {
+            "",
+            "plain text without markup",
+            "A <-> B",
+            "A <> B",
+            "A <<->> B",
+            "A <<> B",
+            "A <-> <b>B</b> <> C",
+            "<i>kinase</i> domain",
+            "unclosed < tag",
+            "unclosed <b tag > closed",
+            "> lonely closing",
+            "a < b > c < d",
+            "Ca2+ & Mg2+ && Zn2+ &&& Fe",
+            "tab\tnew line\ncarriage return\r\n\u0000\u001f\u007f end",
+            "tag <b\nacross> lines",
+            "tag <b\u0085across> next line",
+            "tag <b\u2028across> line separator",
+            "tag <b\u2029across> paragraph separator",
+            "<a\u0085<b>c",
+            "<a<->b>",
+            "<a<>b>",
+            "<",
+            ">",
+            "<-",
+            "<->",
+            "<>",
+            "&",
+            "<<<>>>",
+            "<\u0085>",
+            "x\u0085y\u2028z\u2029"
+    };
+
+    private static final char[] ALPHABET = {'a', 'b', ' ', '<', '>', '-', '&', '\n', '\r', '\t', '\u0000', '\u007f',
+            '\u0085', '\u2028', '\u2029', '/'};
+
+    @Test
+    void sameAsRegularExpressions() {
+        for (String text : CASES) {
+            assertEquals(removeTags(text), NotesSanitizer.sanitize(text), text);
+        }
+    }
+
+    @Test
+    void sameAsRegularExpressionsForRandomTexts() {
+        Random random = new Random(42L);
+        for (int i = 0; i < 100000; i++) {
+            char[] chars = new char[random.nextInt(24)];
+            for (int j = 0; j < chars.length; j++) chars[j] = ALPHABET[random.nextInt(ALPHABET.length)];
+            String text = new String(chars);
+            assertEquals(removeTags(text), NotesSanitizer.sanitize(text), text);
+        }
+    }
+
+    @Test
+    void cleanTextIsNotCopied() {
+        String text = "nothing to be removed here";
+        assertSame(text, NotesSanitizer.sanitize(text));
+    }
+
+    @Test
+    void cachedBySummation() {
+        NotesSanitizer.clearCache();
+        assertEquals(" to ", NotesSanitizer.sanitize(1L, "<->"));
+        assertEquals(" to ", NotesSanitizer.sanitize(1L, "<->"));
+        // A different text for the same DB_ID is sanitised again
+        assertEquals(" and ", NotesSanitizer.sanitize(1L, "&"));
+    }
+
+    /**
+     * The former implementation of Helper.removeTags
+     */
+    private static String removeTags(String notes) {
+        return notes.replaceAll("<->", " to ")
+                .replaceAll("\\p{Cntrl}+", " ")
+                .replaceAll("&+", " and ")
+                .replaceAll("<>", " interconverts to ")
+                .replaceAll("\n+", "  ")
+                .replaceAll("<.*?>", "")
+                .replaceAll("<", " ");
+    }
+}
@@ -0,0 +1,49 @@
+package org.reactome.server.tools.sbml.converter;
+
+import org.junit.jupiter.api.Test;
+import org.reactome.server.graph.domain.model.Pathway;
+import org.reactome.server.tools.sbml.data.synthetic.SyntheticPathwayGenerator;
+import org.reactome.server.tools.sbml.util.Utils;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLReader;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The SBML streamed by {@link SbmlConverter#stream} has to be the same model written from the SBMLDocument built by
+ * {@link SbmlConverter#convert()}. Both files are read back and written again by JSBML, so only the content is
+ * compared and not how it is indented.
+ */
+class SbmlConverterStreamTest {
+
+    @Test
+    void streamedModelEqualsDocument() throws Exception {
+        for (int annotationDensity = 0; annotationDensity <= 3; annotationDensity++) {
+            SyntheticPathwayGenerator generator = new SyntheticPathwayGenerator(42L);
+            generator.setReactions(40);
+            generator.setComplexDepth(3);
+            generator.setAnnotationDensity(annotationDensity);
+            for (String stId : SyntheticPathwayGenerator.getStIds(5)) {
+                Pathway pathway = generator.getPathway(stId);
+
+                ByteArrayOutputStream document = new ByteArrayOutputStream();
+                Utils.writeSBML(document, new SbmlConverter(pathway, 1, generator).convert());
+
+                ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+                new SbmlConverter(pathway, 1, generator).stream(streamed);
+
+                assertEquals(normalise(document), normalise(streamed), stId + " (annotation density " + annotationDensity + ")");
+            }
+        }
+    }
+
+    private static String normalise(ByteArrayOutputStream sbml) throws Exception {
+        SBMLDocument doc = SBMLReader.read(new String(sbml.toByteArray(), StandardCharsets.UTF_8));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Utils.writeSBML(os, doc);
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,140 @@
+package org.reactome.server.tools.sbml.data;
+
+import org.junit.jupiter.api.Test;
+import org.reactome.server.graph.domain.model.DatabaseObject;
+import org.reactome.server.graph.domain.model.Reaction;
+import org.reactome.server.graph.domain.model.SimpleEntity;
+import org.reactome.server.tools.sbml.data.model.ParticipantDetails;
+import org.reactome.server.tools.sbml.data.model.ReactionBase;
+import org.reactome.server.tools.sbml.data.result.MembershipResult;
+import org.reactome.server.tools.sbml.data.result.ParticipantDetailsResult;
+import org.reactome.server.tools.sbml.data.result.ParticipantResult;
+import org.reactome.server.tools.sbml.data.result.ReactionBaseResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Assembles the pathways of a small species from an already extracted {@link SpeciesGraphDataSource.Index}:
+ * <pre>
+ *     P1 -> P2, R1
+ *     P2 -> R2, R3
+ *     P3 -> P2          (R2 and R3 are in P1 and P3)
+ * </pre>
+ */
+class SpeciesGraphDataSourceTest {
+
+    private final Map<String, DatabaseObject> identityMap = new HashMap<>();
+
+    @Test
+    void reactionsOfNestedPathways() {
+        SbmlDataSource source = createDataSource();
+        assertEquals(Arrays.asList("R1", "R2", "R3"), reactions(source.getReactionList("P1")));
+        assertEquals(Arrays.asList("R2", "R3"), reactions(source.getReactionList("P2")));
+        assertEquals(Arrays.asList("R2", "R3"), reactions(source.getReactionList("P3")));
+    }
+
+    @Test
+    void reactionItself() {
+        assertEquals(Collections.singletonList("R2"), reactions(createDataSource().getReactionList("R2")));
+    }
+
+    @Test
+    void participantsOfTheReactionsOnly() {
+        SbmlDataSource source = createDataSource();
+        // In the order of the species results and only once even if they take part in several reactions
+        assertEquals(Arrays.asList("E1", "E2", "E3", "E4"), participants(source.getParticipantDetails("P1")));
+        assertEquals(Arrays.asList("E2", "E3", "E4"), participants(source.getParticipantDetails("P2")));
+        assertEquals(Arrays.asList("E1", "E2"), participants(source.getParticipantDetails("R1")));
+    }
+
+    @Test
+    void participantsShareTheObjectsOfTheReactions() {
+        SbmlDataSource source = createDataSource();
+        ReactionBase r1 = source.getReactionList("R1").iterator().next();
+        assertEquals(identityMap.get("R1"), r1.getReactionLikeEvent());
+        assertEquals(identityMap.get("E1"), r1.getInputs().get(0).getPhysicalEntity());
+        ParticipantDetails e1 = source.getParticipantDetails("R1").iterator().next();
+        assertEquals(identityMap.get("E1"), e1.getPhysicalEntity());
+    }
+
+    private SbmlDataSource createDataSource() {
+        List<ReactionBaseResult> reactions = new ArrayList<>();
+        reactions.add(reaction("R1", "E1", "E2"));
+        reactions.add(reaction("R2", "E2", "E3"));
+        reactions.add(reaction("R3", "E4", "E3"));
+        List<ParticipantDetailsResult> participants = new ArrayList<>();
+        for (String stId : Arrays.asList("E1", "E2", "E3", "E4")) participants.add(participant(stId));
+        List<MembershipResult> reactionParticipants = Arrays.asList(
+                membership("R1", "E1", "E2"),
+                membership("R2", "E2", "E3"),
+                membership("R3", "E4", "E3"));
+        List<MembershipResult> hierarchy = Arrays.asList(
+                membership("P1", "P2", "R1"),
+                membership("P2", "R2", "R3"),
+                membership("P3", "P2"));
+        SpeciesGraphDataSource.Index index = new SpeciesGraphDataSource.Index(reactions, participants, reactionParticipants, hierarchy, identityMap);
+        // No event is out of the index, so the graph database is never queried
+        return new SpeciesGraphDataSource(index, null);
+    }
+
+    private ReactionBaseResult reaction(String stId, String input, String output) {
+        Reaction rle = new Reaction();
+        rle.setStId(stId);
+        identityMap.put(stId, rle);
+        ReactionBaseResult result = new ReactionBaseResult();
+        result.setRle(stId);
+        result.setGoTerms(Collections.emptyList());
+        result.setEcNumbers(Collections.emptyList());
+        result.setLiteratureRefs(Collections.emptyList());
+        result.setXrefs(Collections.emptyList());
+        result.setDiseases(Collections.emptyList());
+        result.setInputs(Collections.singletonList(participantResult(input)));
+        result.setOutputs(Collections.singletonList(participantResult(output)));
+        result.setCatalysts(Collections.emptyList());
+        result.setPositiveRegulators(Collections.emptyList());
+        result.setNegativeRegulators(Collections.emptyList());
+        return result;
+    }
+
+    private static ParticipantResult participantResult(String stId) {
+        ParticipantResult result = new ParticipantResult();
+        result.setPhysicalEntity(stId);
+        result.setStoichiometry(1);
+        return result;
+    }
+
+    private ParticipantDetailsResult participant(String stId) {
+        SimpleEntity pe = new SimpleEntity();
+        pe.setStId(stId);
+        identityMap.put(stId, pe);
+        ParticipantDetailsResult result = new ParticipantDetailsResult();
+        result.setPeStId(stId);
+        result.setIds(Collections.emptyList());
+        result.setUrls(Collections.emptyList());
+        return result;
+    }
+
+    private static MembershipResult membership(String stId, String... members) {
+        MembershipResult result = new MembershipResult();
+        result.setStId(stId);
+        result.setMembers(Arrays.asList(members));
+        return result;
+    }
+
+    private static List<String> reactions(Collection<ReactionBase> reactions) {
+        return reactions.stream().map(r -> r.getReactionLikeEvent().getStId()).collect(Collectors.toList());
+    }
+
+    private static List<String> participants(Collection<ParticipantDetails> participants) {
+        return participants.stream().map(p -> p.getPhysicalEntity().getStId()).collect(Collectors.toList());
+    }
+}